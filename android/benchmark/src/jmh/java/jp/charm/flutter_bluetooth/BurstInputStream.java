@@ -0,0 +1,51 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.InputStream;
+
+/**
+ * Stand-in for a socket stream: serves a fixed payload in bursts the way an RFCOMM socket
+ * hands over what the controller delivered, reporting the rest of a burst as available.
+ */
+class BurstInputStream extends InputStream {
+  private final byte[] data;
+  private final int burst;
+  private int position = 0;
+  // End of the burst being read
+  private int burstEnd = 0;
+
+  BurstInputStream(byte[] data, int burst) {
+    this.data = data;
+    this.burst = burst;
+  }
+
+  void rewind() {
+    position = 0;
+    burstEnd = 0;
+  }
+
+  @Override
+  public int read() {
+    byte[] one = new byte[1];
+    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (position >= data.length) {
+      return -1;
+    }
+    if (position >= burstEnd) {
+      burstEnd = Math.min(data.length, position + burst);
+    }
+
+    int count = Math.min(len, burstEnd - position);
+    System.arraycopy(data, position, b, off, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return burstEnd - position;
+  }
+}
@@ -0,0 +1,89 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+
+/** Device store churn with thousands of known devices, as during a busy discovery */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class DeviceStoreBenchmark {
+  @Param({"1000", "10000"})
+  int devices;
+
+  private DeviceStore store;
+  private String[] addresses;
+  private int next = 0;
+  private int rssi = -40;
+
+  private static final DeviceStore.Listener LISTENER = new DeviceStore.Listener() {
+    @Override
+    public void added(Device device) {
+    }
+
+    @Override
+    public void changed(Device device) {
+    }
+
+    @Override
+    public void removed(String address) {
+    }
+  };
+
+  @Setup
+  public void setUp() {
+    store = new DeviceStore(LISTENER);
+    addresses = new String[devices];
+    for (int i = 0; i < devices; i++) {
+      addresses[i] = Device.unpackAddress(0x001A7D000000L + i);
+      store.put(device(i, -60));
+    }
+  }
+
+  private Device device(int i, int rssi) {
+    return new Device("device " + i, addresses[i], 1, false, false, rssi, System.currentTimeMillis());
+  }
+
+  private int nextIndex() {
+    next = next + 1 == devices ? 0 : next + 1;
+    return next;
+  }
+
+  /** A scan result updating the signal strength of a known device */
+  @Benchmark
+  public long update() {
+    rssi = rssi == -40 ? -41 : -40;
+    store.put(device(nextIndex(), rssi));
+    return store.version();
+  }
+
+  @Benchmark
+  public Device lookup() {
+    return store.get(addresses[nextIndex()]);
+  }
+
+  /** getDeviceList right after a change, which has to rebuild the sorted snapshot */
+  @Benchmark
+  public List<Device> updateThenSnapshot() {
+    rssi = rssi == -40 ? -41 : -40;
+    store.put(device(nextIndex(), rssi));
+    return store.snapshot();
+  }
+
+  /** getDeviceListSince with the last 100 changes outstanding */
+  @Benchmark
+  public Map<String, Object> delta() {
+    for (int i = 0; i < 100; i++) {
+      rssi = rssi == -40 ? -41 : -40;
+      store.put(device(nextIndex(), rssi));
+    }
+    return store.since(store.version() - 100).toMap();
+  }
+}
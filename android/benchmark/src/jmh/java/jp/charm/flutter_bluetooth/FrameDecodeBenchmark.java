@@ -0,0 +1,82 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Frame decoding throughput, in operations (frames) per second */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class FrameDecodeBenchmark {
+  private static final int FRAMES = 1024;
+  // Size of the slices the stream is fed in, like bursts coming off the socket
+  private static final int CHUNK = 990;
+
+  @Param({"etx", "stxEtx", "lengthPrefixed"})
+  String framing;
+
+  @Param({"32", "512"})
+  int frameSize;
+
+  private FrameDecoder decoder;
+  private byte[] stream;
+
+  @Setup
+  public void setUp() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("type", framing);
+    decoder = FrameDecoder.fromArguments(arguments);
+
+    // Printable payloads so no byte collides with the control characters
+    Random random = new Random(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < FRAMES; i++) {
+      byte[] payload = new byte[frameSize];
+      for (int j = 0; j < payload.length; j++) {
+        payload[j] = (byte) ('0' + random.nextInt(64));
+      }
+      switch (framing) {
+        case "etx":
+          out.write(payload, 0, payload.length);
+          out.write(0x03);
+          break;
+        case "stxEtx":
+          out.write(0x02);
+          out.write(payload, 0, payload.length);
+          out.write(0x03);
+          break;
+        default:
+          out.write(payload.length >> 8);
+          out.write(payload.length);
+          out.write(payload, 0, payload.length);
+      }
+    }
+    stream = out.toByteArray();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public void decode(final Blackhole blackhole) {
+    FrameDecoder.FrameListener listener = new FrameDecoder.FrameListener() {
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    };
+
+    for (int off = 0; off < stream.length; off += CHUNK) {
+      decoder.decode(stream, off, Math.min(CHUNK, stream.length - off), listener);
+    }
+  }
+}
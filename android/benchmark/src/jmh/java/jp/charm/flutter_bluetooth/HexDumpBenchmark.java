@@ -0,0 +1,41 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/** Hex dumps of wire data as used for logging, in dumps per second */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class HexDumpBenchmark {
+  @Param({"64", "4096"})
+  int size;
+
+  private byte[] data;
+
+  private char[] line;
+
+  @Setup
+  public void setUp() {
+    data = new byte[size];
+    new Random(1).nextBytes(data);
+    line = new char[size * HexDump.MAX_TOKEN_LENGTH];
+  }
+
+  @Benchmark
+  public String format() {
+    return HexDump.format(data);
+  }
+
+  /** Formatting into a reused buffer, as the wire trace logger does */
+  @Benchmark
+  public int formatInto() {
+    return HexDump.format(data, 0, data.length, line, 0);
+  }
+}
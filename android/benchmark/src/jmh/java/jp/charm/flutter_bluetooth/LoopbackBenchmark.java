@@ -0,0 +1,92 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ETX frames from the write queue through a pipe into the read loop and decoder, the path the
+ * conformance tests check, in operations (frames) per second
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class LoopbackBenchmark {
+  private static final int FRAMES = 1024;
+
+  @Param({"16", "256", "4096"})
+  int frameSize;
+
+  private byte[] frame;
+
+  @Setup
+  public void setUp() {
+    frame = new byte[frameSize];
+    Arrays.fill(frame, (byte) 'A');
+    frame[frameSize - 1] = 0x03;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public void etxFrames(final Blackhole blackhole) throws IOException {
+    PipedInputStream in = new PipedInputStream(64 * 1024);
+    final PipedOutputStream out = new PipedOutputStream(in);
+    WriteQueue queue = new WriteQueue("benchmark-loopback", out, FRAMES, WriteQueue.DEFAULT_BATCH_SIZE, false, null, null);
+    queue.start();
+
+    final AtomicInteger remaining = new AtomicInteger(FRAMES);
+    WriteQueue.Callback callback = new WriteQueue.Callback() {
+      @Override
+      public void onSending() {
+      }
+
+      @Override
+      public void onProgress(long sent, long total) {
+      }
+
+      @Override
+      public void onWritten() {
+        // The read loop ends once the last frame went out
+        if (remaining.decrementAndGet() == 0) {
+          try {
+            out.close();
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      }
+
+      @Override
+      public void onError(IOException error) {
+        throw new IllegalStateException(error);
+      }
+    };
+    for (int i = 0; i < FRAMES; i++) {
+      queue.offer(frame, callback);
+    }
+
+    new ReadLoop(in, new DelimiterFrameDecoder(new byte[]{0x03}, true, FrameDecoder.DEFAULT_MAX_FRAME_LENGTH), null, null)
+            .run(new ReadLoop.Listener() {
+              @Override
+              public void onData(ReadEngine engine) {
+              }
+
+              @Override
+              public void onFrame(byte[] frame) {
+                blackhole.consume(frame);
+              }
+            });
+    queue.close();
+  }
+}
@@ -0,0 +1,116 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+
+/** Read throughput of the unframed receive path, in operations (bytes) per second */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class ReadBenchmark {
+  private static final int PAYLOAD = 1 << 20;
+
+  // Bytes the fake socket hands over per burst
+  @Param({"64", "990", "8192"})
+  int burst;
+
+  private BurstInputStream stream;
+  private final WireTrace trace = new WireTrace("benchmark", WireTrace.DEFAULT_CAPACITY);
+  private final ReceiveBuffer received = new ReceiveBuffer(ReceiveBuffer.Options.DEFAULT, false, null);
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    byte[] data = new byte[PAYLOAD];
+    new Random(1).nextBytes(data);
+    stream = new BurstInputStream(data, burst);
+  }
+
+  @Setup(Level.Invocation)
+  public void rewind() {
+    stream.rewind();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAYLOAD)
+  public void readLoop(final Blackhole blackhole) throws IOException {
+    new ReadLoop(stream, null, null, null).run(new ReadLoop.Listener() {
+      @Override
+      public void onData(ReadEngine engine) {
+        // Baseline of a copy per burst
+        blackhole.consume(engine.copy());
+      }
+
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAYLOAD)
+  public void readLoopWithStats(final Blackhole blackhole) throws IOException {
+    new ReadLoop(stream, null, new ConnectionStats(), null).run(new ReadLoop.Listener() {
+      @Override
+      public void onData(ReadEngine engine) {
+        blackhole.consume(engine.copy());
+      }
+
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAYLOAD)
+  public void readLoopWithTrace(final Blackhole blackhole) throws IOException {
+    new ReadLoop(stream, null, null, trace).run(new ReadLoop.Listener() {
+      @Override
+      public void onData(ReadEngine engine) {
+        blackhole.consume(engine.copy());
+      }
+
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAYLOAD)
+  public void readLoopThroughReceiveBuffer(final Blackhole blackhole) throws IOException {
+    new ReadLoop(stream, null, null, null).run(new ReadLoop.Listener() {
+      @Override
+      public void onData(ReadEngine engine) {
+        // As the plugin does, with the main thread taking what piled up every 16 KB or so
+        try {
+          received.write(engine.array(), 0, engine.length());
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        if (received.size() >= 16 * 1024) {
+          blackhole.consume(received.drain());
+        }
+      }
+
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    });
+    blackhole.consume(received.drain());
+  }
+}
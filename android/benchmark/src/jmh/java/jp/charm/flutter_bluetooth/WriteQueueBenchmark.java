@@ -0,0 +1,92 @@
+package jp.charm.flutter_bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write coalescing: small writes queued back to back and flushed by the writer thread, in
+ * operations (writes) per second. The stream counts system calls, i.e. batches, on the side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class WriteQueueBenchmark {
+  private static final int WRITES = 1024;
+
+  @Param({"16", "256", "8192"})
+  int writeSize;
+
+  private CountingOutputStream out;
+  private WriteQueue queue;
+  private byte[] message;
+
+  static class CountingOutputStream extends OutputStream {
+    final AtomicLong writes = new AtomicLong();
+
+    @Override
+    public void write(int b) {
+      writes.incrementAndGet();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      writes.incrementAndGet();
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    out = new CountingOutputStream();
+    queue = new WriteQueue("benchmark-write", out, WRITES, WriteQueue.DEFAULT_BATCH_SIZE, false, null, null);
+    queue.start();
+    message = new byte[writeSize];
+  }
+
+  @TearDown
+  public void tearDown() {
+    queue.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WRITES)
+  public void offerAndFlush() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(WRITES);
+    WriteQueue.Callback callback = new WriteQueue.Callback() {
+      @Override
+      public void onSending() {
+      }
+
+      @Override
+      public void onProgress(long sent, long total) {
+      }
+
+      @Override
+      public void onWritten() {
+        done.countDown();
+      }
+
+      @Override
+      public void onError(IOException error) {
+        throw new IllegalStateException(error);
+      }
+    };
+
+    for (int i = 0; i < WRITES; i++) {
+      while (!queue.offer(message, callback)) {
+        Thread.yield();
+      }
+    }
+    done.await();
+  }
+}
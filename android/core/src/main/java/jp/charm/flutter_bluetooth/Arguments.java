@@ -0,0 +1,37 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.List;
+import java.util.Map;
+
+/** Helpers for reading optional values out of method call argument maps */
+final class Arguments {
+  private Arguments() {
+  }
+
+  static int intArgument(Map<String, Object> arguments, String key, int defaultValue) {
+    Object value = arguments == null ? null : arguments.get(key);
+    return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+  }
+
+  static long longArgument(Map<String, Object> arguments, String key, long defaultValue) {
+    Object value = arguments == null ? null : arguments.get(key);
+    return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+  }
+
+  /** Accepts both a Uint8List and a List<int> from Dart */
+  static byte[] bytesArgument(Map<String, Object> arguments, String key) {
+    Object value = arguments == null ? null : arguments.get(key);
+    if (value instanceof byte[]) {
+      return (byte[]) value;
+    }
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      byte[] bytes = new byte[list.size()];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = ((Number) list.get(i)).byteValue();
+      }
+      return bytes;
+    }
+    return null;
+  }
+}
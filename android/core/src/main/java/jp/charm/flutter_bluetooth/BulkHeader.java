@@ -0,0 +1,49 @@
+package jp.charm.flutter_bluetooth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Header at the start of each message on the bulk channel: 'H', the transfer id as a big endian
+ * int32, the address length as one byte and the ASCII address, empty for the only connection.
+ * The payload is the rest of the same message, so a message that is rejected can't leave the
+ * next transfer's header and payload paired up wrongly. Each message is answered with a status
+ * byte, 0 on success, followed by the UTF-8 error message otherwise.
+ */
+class BulkHeader {
+  static final byte TAG = 'H';
+
+  final int transferId;
+  final String address;
+
+  BulkHeader(int transferId, String address) {
+    this.transferId = transferId;
+    this.address = address;
+  }
+
+  /** Reads the header, leaving the message positioned at the payload */
+  static BulkHeader parse(ByteBuffer message) {
+    if (message.remaining() < 6 || message.get() != TAG) {
+      throw new IllegalArgumentException("not a bulk header");
+    }
+    int transferId = message.getInt();
+    byte[] address = new byte[message.get() & 0xFF];
+    if (message.remaining() < address.length) {
+      throw new IllegalArgumentException("bulk header truncated");
+    }
+    message.get(address);
+    return new BulkHeader(transferId, new String(address, Charset.forName("US-ASCII")));
+  }
+
+  /**
+   * Reply to a bulk message, null for success. Left unflipped, as the embedding sends a reply
+   * up to its position
+   */
+  static ByteBuffer reply(String error) {
+    byte[] text = error == null ? new byte[0] : error.getBytes(Charset.forName("UTF-8"));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 + text.length);
+    buffer.put((byte) (error == null ? 0 : 1));
+    buffer.put(text);
+    return buffer;
+  }
+}
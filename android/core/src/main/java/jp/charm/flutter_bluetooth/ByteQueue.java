@@ -0,0 +1,102 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Growable FIFO of bytes backed by a single array.
+ *
+ * Used to hold received data until it is polled, without the repeated copies of a
+ * ByteArrayOutputStream. Not thread safe, callers synchronize on the instance.
+ */
+class ByteQueue {
+  private byte[] data;
+  private int head = 0;
+  private int tail = 0;
+
+  ByteQueue(int initialCapacity) {
+    data = new byte[initialCapacity];
+  }
+
+  int size() {
+    return tail - head;
+  }
+
+  void append(byte[] src, int offset, int length) {
+    if (tail + length > data.length) {
+      int size = size();
+      if (size + length > data.length) {
+        data = Arrays.copyOfRange(data, head, head + Math.max(data.length * 2, size + length));
+      } else {
+        System.arraycopy(data, head, data, 0, size);
+      }
+      head = 0;
+      tail = size;
+    }
+    System.arraycopy(src, offset, data, tail, length);
+    tail += length;
+  }
+
+  void append(byte value) {
+    if (tail == data.length) {
+      append(new byte[]{value}, 0, 1);
+      return;
+    }
+    data[tail++] = value;
+  }
+
+  void clear() {
+    head = 0;
+    tail = 0;
+  }
+
+  /** Number of bytes up to and including the first occurrence of value, or -1 */
+  int indexOf(byte value) {
+    for (int i = head; i < tail; i++) {
+      if (data[i] == value) {
+        return i - head + 1;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns a copy of length bytes starting at index without removing them */
+  byte[] peek(int index, int length) {
+    return Arrays.copyOfRange(data, head + index, head + index + length);
+  }
+
+  boolean endsWith(byte[] suffix) {
+    if (size() < suffix.length) {
+      return false;
+    }
+    for (int i = 0, j = tail - suffix.length; i < suffix.length; i++, j++) {
+      if (data[j] != suffix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Discards the first length bytes */
+  void skip(int length) {
+    head += length;
+    if (head == tail) {
+      head = 0;
+      tail = 0;
+    }
+  }
+
+  /** Removes and returns the first length bytes */
+  byte[] take(int length) {
+    byte[] out = Arrays.copyOfRange(data, head, head + length);
+    head += length;
+    if (head == tail) {
+      head = 0;
+      tail = 0;
+    }
+    return out;
+  }
+
+  byte[] takeAll() {
+    return take(size());
+  }
+}
@@ -0,0 +1,54 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one connection. Updated by the reader and writer threads
+ * without locking, a snapshot taken with {@link #toMap} is not atomic across counters.
+ */
+class ConnectionStats {
+  private final long created = System.currentTimeMillis();
+
+  final AtomicLong bytesIn = new AtomicLong();
+  final AtomicLong bytesOut = new AtomicLong();
+  // Frames received, or bursts of data when unframed
+  final AtomicLong framesIn = new AtomicLong();
+  // Completed write requests
+  final AtomicLong framesOut = new AtomicLong();
+  final AtomicLong reconnects = new AtomicLong();
+  // Highest write queue depth seen when queuing
+  private final AtomicLong maxQueueDepth = new AtomicLong();
+
+  // Time spent in OutputStream.write() per batch or chunk
+  final Histogram writeLatency = new Histogram();
+  // From the read returning to the data being handed to the event sink on the main thread
+  final Histogram deliveryLatency = new Histogram();
+  // From the connect call to the link being up, including reconnects
+  final Histogram connectLatency = new Histogram();
+
+  void queued(int depth) {
+    long current;
+    while (depth > (current = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(current, depth)) {
+      // Retry with the maximum another thread just set
+    }
+  }
+
+  Map<String, Object> toMap(int queueDepth, int queueCapacity) {
+    Map<String, Object> map = new HashMap<>();
+    map.put("since", created);
+    map.put("bytesIn", bytesIn.get());
+    map.put("bytesOut", bytesOut.get());
+    map.put("framesIn", framesIn.get());
+    map.put("framesOut", framesOut.get());
+    map.put("reconnects", reconnects.get());
+    map.put("queueDepth", queueDepth);
+    map.put("queueCapacity", queueCapacity);
+    map.put("maxQueueDepth", maxQueueDepth.get());
+    map.put("writeLatency", writeLatency.toMap());
+    map.put("deliveryLatency", deliveryLatency.toMap());
+    map.put("connectLatency", connectLatency.toMap());
+    return map;
+  }
+}
@@ -0,0 +1,38 @@
+package jp.charm.flutter_bluetooth;
+
+/** Emits a frame each time the delimiter sequence is received, e.g. ETX or CR LF */
+class DelimiterFrameDecoder implements FrameDecoder {
+  private final byte[] delimiter;
+  private final boolean includeDelimiter;
+  private final int maxFrameLength;
+  private final ByteQueue frame = new ByteQueue(256);
+
+  DelimiterFrameDecoder(byte[] delimiter, boolean includeDelimiter, int maxFrameLength) {
+    this.delimiter = delimiter.clone();
+    this.includeDelimiter = includeDelimiter;
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, FrameListener listener) {
+    for (int i = offset; i < offset + length; i++) {
+      byte b = data[i];
+      frame.append(b);
+
+      if (b == delimiter[delimiter.length - 1] && frame.endsWith(delimiter)) {
+        int size = frame.size();
+        byte[] out = frame.take(includeDelimiter ? size : size - delimiter.length);
+        frame.clear();
+        listener.onFrame(out);
+      } else if (frame.size() > maxFrameLength) {
+        // Oversized garbage, drop it rather than buffering without bound
+        reset();
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+    frame.clear();
+  }
+}
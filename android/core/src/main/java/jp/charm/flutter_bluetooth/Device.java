@@ -0,0 +1,146 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** Immutable state of a device, changes are stored as a new instance */
+class Device {
+  static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
+  final public String name;
+  final public String address;
+  final int type;
+  final boolean bonded;
+  final boolean connected;
+  // Signal strength in dBm of the last inquiry or advertisement, RSSI_UNKNOWN if never seen
+  final int rssi;
+  // Wall clock time the device was last seen in a scan or connected, 0 if never seen
+  final long lastSeen;
+  // Service UUID of the last successful connect, null if never connected
+  final String service;
+  // RFCOMM channel that service was found on, 0 if unknown
+  final int channel;
+  // Service UUIDs of the last SDP query, null if never queried
+  final List<String> uuids;
+
+  Device(String name, String address, int type, boolean bonded, boolean connected) {
+    this(name, address, type, bonded, connected, RSSI_UNKNOWN, 0, null);
+  }
+
+  Device(String name, String address, int type, boolean bonded, boolean connected, int rssi, long lastSeen) {
+    this(name, address, type, bonded, connected, rssi, lastSeen, null);
+  }
+
+  Device(String name, String address, int type, boolean bonded, boolean connected, int rssi, long lastSeen, String service) {
+    this(name, address, type, bonded, connected, rssi, lastSeen, service, 0, null);
+  }
+
+  Device(String name, String address, int type, boolean bonded, boolean connected, int rssi, long lastSeen, String service,
+         int channel, List<String> uuids) {
+    this.name = name;
+    this.address = address;
+    this.type = type;
+    this.bonded = bonded;
+    this.connected = connected;
+    this.rssi = rssi;
+    this.lastSeen = lastSeen;
+    this.service = service;
+    this.channel = channel;
+    this.uuids = uuids;
+  }
+
+  Device withConnected(boolean connected) {
+    return new Device(name, address, type, bonded, connected, rssi, lastSeen, service, channel, uuids);
+  }
+
+  /**
+   * Marks a successful connect to a service on a channel, 0 if unknown, which also counts as
+   * seeing the device
+   */
+  Device connectedTo(String service, int channel, long now) {
+    return new Device(name, address, type, bonded, true, rssi, Math.max(lastSeen, now), service, channel, uuids);
+  }
+
+  Device withUuids(List<String> uuids) {
+    return new Device(name, address, type, bonded, connected, rssi, lastSeen, service, channel, uuids);
+  }
+
+  /** Fills in what this update doesn't know, e.g. the signal strength for a bonded device */
+  Device mergedWith(Device previous) {
+    if ((rssi != RSSI_UNKNOWN || previous.rssi == RSSI_UNKNOWN) && lastSeen >= previous.lastSeen && name != null
+            && (service != null || previous.service == null) && (uuids != null || previous.uuids == null)) {
+      return this;
+    }
+    return new Device(
+            name != null ? name : previous.name,
+            address,
+            type,
+            bonded,
+            connected,
+            rssi != RSSI_UNKNOWN ? rssi : previous.rssi,
+            Math.max(lastSeen, previous.lastSeen),
+            service != null ? service : previous.service,
+            // The channel belongs to the service and is only taken along with it
+            service != null ? channel : previous.channel,
+            uuids != null ? uuids : previous.uuids);
+  }
+
+  /** True if the device may be forgotten, it is neither bonded, connected nor seen since cutoff */
+  boolean expired(long cutoff) {
+    return !bonded && !connected && lastSeen < cutoff;
+  }
+
+  /** True if the other device describes the same state of the same address, ignoring lastSeen */
+  boolean sameAs(Device other) {
+    return address.equals(other.address)
+            && (name == null ? other.name == null : name.equals(other.name))
+            && type == other.type
+            && bonded == other.bonded
+            && connected == other.connected
+            && rssi == other.rssi
+            && (service == null ? other.service == null : service.equals(other.service))
+            && channel == other.channel
+            && (uuids == null ? other.uuids == null : uuids.equals(other.uuids));
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> ret = new HashMap<>();
+    ret.put("address", address);
+    ret.put("name", name);
+    ret.put("type", type);
+    ret.put("bonded", bonded);
+    ret.put("connected", connected);
+    ret.put("rssi", rssi == RSSI_UNKNOWN ? null : rssi);
+    ret.put("lastSeen", lastSeen == 0 ? null : lastSeen);
+    ret.put("service", service);
+    ret.put("channel", channel == 0 ? null : channel);
+    ret.put("uuids", uuids);
+    return ret;
+  }
+
+  /** Packs a 'XX:XX:XX:XX:XX:XX' address into the low 48 bits of a long */
+  static long packAddress(String address) {
+    if (address.length() != 17) {
+      throw new IllegalArgumentException("invalid address " + address);
+    }
+
+    long packed = 0;
+    for (int i = 0; i < 17; i += 3) {
+      int high = Character.digit(address.charAt(i), 16);
+      int low = Character.digit(address.charAt(i + 1), 16);
+      if (high < 0 || low < 0 || (i < 15 && address.charAt(i + 2) != ':')) {
+        throw new IllegalArgumentException("invalid address " + address);
+      }
+      packed = (packed << 8) | (high << 4) | low;
+    }
+    return packed;
+  }
+
+  static String unpackAddress(long packed) {
+    return String.format(Locale.US, "%02X:%02X:%02X:%02X:%02X:%02X",
+            (packed >> 40) & 0xFF, (packed >> 32) & 0xFF, (packed >> 24) & 0xFF,
+            (packed >> 16) & 0xFF, (packed >> 8) & 0xFF, packed & 0xFF);
+  }
+}
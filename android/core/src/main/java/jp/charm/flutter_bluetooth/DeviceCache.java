@@ -0,0 +1,160 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persists known devices to a small binary file so the device list is available right after
+ * startup, before any inquiry has run.
+ *
+ * Layout: magic, format version, record count, then per device its packed address, name,
+ * type, bonded flag, rssi, lastSeen, last connected service UUID and, since version 2, the
+ * service's RFCOMM channel and the UUIDs of the last SDP query. Devices that expired
+ * (see {@link Device#expired(long)}) are neither written nor loaded.
+ */
+class DeviceCache {
+  static final long DEFAULT_TTL = 7L * 24 * 60 * 60 * 1000;
+
+  private static final int MAGIC = 0x46424443; // FBDC
+  private static final int FORMAT_VERSION = 2;
+
+  private final File file;
+  private volatile long ttl = DEFAULT_TTL;
+
+  DeviceCache(File file) {
+    this.file = file;
+  }
+
+  long getTtl() {
+    return ttl;
+  }
+
+  void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  /** Oldest lastSeen a device may have to be kept */
+  long cutoff(long now) {
+    return now - ttl;
+  }
+
+  /** Reads the cached devices that haven't expired, nothing if there is no usable cache */
+  List<Device> load(long now) throws IOException {
+    List<Device> devices = new ArrayList<>();
+    if (!file.exists()) {
+      return devices;
+    }
+
+    long cutoff = cutoff(now);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+      if (version < 1 || version > FORMAT_VERSION) {
+        // Unknown layout, start over rather than misreading it
+        return devices;
+      }
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String address = Device.unpackAddress(in.readLong());
+        String name = in.readBoolean() ? in.readUTF() : null;
+        int type = in.readUnsignedByte();
+        boolean bonded = in.readBoolean();
+        int rssi = in.readShort();
+        long lastSeen = in.readLong();
+        String service = in.readBoolean() ? readUuid(in) : null;
+        int channel = 0;
+        List<String> uuids = null;
+        if (version >= 2) {
+          channel = in.readUnsignedByte();
+          int uuidCount = in.readShort();
+          if (uuidCount >= 0) {
+            uuids = new ArrayList<>(uuidCount);
+            for (int j = 0; j < uuidCount; j++) {
+              uuids.add(readUuid(in));
+            }
+            uuids = Collections.unmodifiableList(uuids);
+          }
+        }
+
+        Device device = new Device(name, address, type, bonded, false, rssi, lastSeen, service, channel, uuids);
+        if (!device.expired(cutoff)) {
+          devices.add(device);
+        }
+      }
+    } catch (EOFException e) {
+      // Truncated by an interrupted write, keep what was complete
+    }
+    return devices;
+  }
+
+  /** Writes the devices that haven't expired, replacing the previous cache atomically */
+  void save(List<Device> devices, long now) throws IOException {
+    long cutoff = cutoff(now);
+    List<Device> kept = new ArrayList<>(devices.size());
+    for (Device device : devices) {
+      if (!device.expired(cutoff)) {
+        kept.add(device);
+      }
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeByte(FORMAT_VERSION);
+      out.writeInt(kept.size());
+
+      for (Device device : kept) {
+        out.writeLong(Device.packAddress(device.address));
+        out.writeBoolean(device.name != null);
+        if (device.name != null) {
+          out.writeUTF(device.name);
+        }
+        out.writeByte(device.type);
+        out.writeBoolean(device.bonded);
+        out.writeShort(device.rssi);
+        out.writeLong(device.lastSeen);
+        out.writeBoolean(device.service != null);
+        if (device.service != null) {
+          writeUuid(out, device.service);
+        }
+        out.writeByte(device.channel);
+        // -1 for never queried
+        out.writeShort(device.uuids == null ? -1 : device.uuids.size());
+        if (device.uuids != null) {
+          for (String uuid : device.uuids) {
+            writeUuid(out, uuid);
+          }
+        }
+      }
+    }
+
+    if (!temp.renameTo(file)) {
+      throw new IOException("could not replace " + file);
+    }
+  }
+
+  void delete() {
+    file.delete();
+  }
+
+  private static String readUuid(DataInputStream in) throws IOException {
+    return new UUID(in.readLong(), in.readLong()).toString();
+  }
+
+  private static void writeUuid(DataOutputStream out, String value) throws IOException {
+    UUID uuid = UUID.fromString(value);
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+  }
+}
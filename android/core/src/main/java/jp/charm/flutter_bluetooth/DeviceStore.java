@@ -0,0 +1,241 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Known devices indexed by their 48-bit address, versioned so callers can fetch only what changed.
+ *
+ * Discovery, LE scan results and connection changes update the store from different threads.
+ * Writers are serialized on the store, while {@link #get(String)} and {@link #snapshot()} never
+ * lock on the common path: lookups go straight to a concurrent map and snapshots are immutable
+ * address-sorted lists, rebuilt once after a change and shared until the next one.
+ *
+ * Every change bumps the store version and stamps the affected device with it. Removed
+ * addresses are remembered as tombstones, a bounded number of them, so {@link #since(long)}
+ * can report removals too; a version older than the oldest kept tombstone gets the full list.
+ */
+class DeviceStore {
+  static final int MAX_TOMBSTONES = 1024;
+
+  interface Listener {
+    void added(Device device);
+
+    void changed(Device device);
+
+    void removed(String address);
+  }
+
+  /** Changes since a version, or the full list when {@link #full} is set */
+  static class Delta {
+    final long version;
+    final boolean full;
+    final List<Device> devices;
+    final List<String> removed;
+
+    Delta(long version, boolean full, List<Device> devices, List<String> removed) {
+      this.version = version;
+      this.full = full;
+      this.devices = devices;
+      this.removed = removed;
+    }
+
+    Map<String, Object> toMap() {
+      List<Map<String, Object>> list = new ArrayList<>();
+      for (Device device : devices) {
+        list.add(device.toMap());
+      }
+
+      Map<String, Object> ret = new HashMap<>();
+      ret.put("version", version);
+      ret.put("full", full);
+      ret.put("devices", list);
+      ret.put("removed", removed);
+      return ret;
+    }
+  }
+
+  private static class Entry {
+    final long key;
+    final Device device;
+    final long version;
+
+    Entry(long key, Device device, long version) {
+      this.key = key;
+      this.device = device;
+      this.version = version;
+    }
+  }
+
+  private static class Snapshot {
+    final long modCount;
+    final List<Device> devices;
+
+    Snapshot(long modCount, List<Device> devices) {
+      this.modCount = modCount;
+      this.devices = devices;
+    }
+  }
+
+  private final ConcurrentHashMap<Long, Entry> devices = new ConcurrentHashMap<>();
+  // Removal version -> removed address, oldest first
+  private final TreeMap<Long, String> tombstones = new TreeMap<>();
+  private final Map<Long, Long> tombstoneVersions = new HashMap<>();
+  private final Listener listener;
+  private volatile long version = 0;
+  // Bumped on every write, including lastSeen refreshes that keep the version
+  private volatile long modCount = 0;
+  private volatile Snapshot snapshot = new Snapshot(0, new ArrayList<Device>());
+  // Removals up to this version have been forgotten
+  private long tombstoneFloor = 0;
+
+  DeviceStore(Listener listener) {
+    this.listener = listener;
+  }
+
+  long version() {
+    return version;
+  }
+
+  int size() {
+    return devices.size();
+  }
+
+  Device get(String address) {
+    Entry entry = devices.get(Device.packAddress(address));
+    return entry == null ? null : entry.device;
+  }
+
+  /**
+   * Adds or replaces a device. Details the update doesn't carry are kept from the stored
+   * device, and updates that only refresh lastSeen don't bump the version.
+   */
+  synchronized void put(Device device) {
+    long key = Device.packAddress(device.address);
+    Entry existing = devices.get(key);
+
+    if (existing != null) {
+      device = device.mergedWith(existing.device);
+      if (existing.device.sameAs(device)) {
+        if (device.lastSeen != existing.device.lastSeen) {
+          devices.put(key, new Entry(key, device, existing.version));
+          modCount++;
+        }
+        return;
+      }
+    }
+
+    devices.put(key, new Entry(key, device, ++version));
+    modCount++;
+    forgetTombstone(key);
+
+    if (existing == null) {
+      listener.added(device);
+    } else {
+      listener.changed(device);
+    }
+  }
+
+  synchronized void setConnected(String address, boolean connected) {
+    Entry entry = devices.get(Device.packAddress(address));
+    if (entry != null) {
+      put(entry.device.withConnected(connected));
+    }
+  }
+
+  /** Adds a device restored from the cache unless fresher information is already stored */
+  synchronized void restore(Device device) {
+    if (!devices.containsKey(Device.packAddress(device.address))) {
+      put(device);
+    }
+  }
+
+  /** Removes every device that is neither bonded, connected nor seen since cutoff */
+  synchronized void evict(long cutoff) {
+    for (Entry entry : devices.values()) {
+      if (entry.device.expired(cutoff)) {
+        remove(entry.device.address);
+      }
+    }
+  }
+
+  synchronized void remove(String address) {
+    long key = Device.packAddress(address);
+    if (devices.remove(key) == null) {
+      return;
+    }
+    addTombstone(key, address, ++version);
+    modCount++;
+    listener.removed(address);
+  }
+
+  synchronized void clear() {
+    for (Entry entry : devices.values()) {
+      remove(entry.device.address);
+    }
+  }
+
+  /** All devices sorted by address, the returned list must not be modified */
+  List<Device> snapshot() {
+    Snapshot current = snapshot;
+    if (current.modCount == modCount) {
+      return current.devices;
+    }
+
+    synchronized (this) {
+      if (snapshot.modCount != modCount) {
+        Entry[] entries = devices.values().toArray(new Entry[0]);
+        Arrays.sort(entries, (a, b) -> Long.compare(a.key, b.key));
+
+        List<Device> list = new ArrayList<>(entries.length);
+        for (Entry entry : entries) {
+          list.add(entry.device);
+        }
+        snapshot = new Snapshot(modCount, list);
+      }
+      return snapshot.devices;
+    }
+  }
+
+  /** Devices added or changed and addresses removed after the given version */
+  synchronized Delta since(long since) {
+    if (since <= 0 || since < tombstoneFloor || since > version) {
+      return new Delta(version, true, snapshot(), new ArrayList<String>());
+    }
+
+    List<Device> changed = new ArrayList<>();
+    for (Device device : snapshot()) {
+      Entry entry = devices.get(Device.packAddress(device.address));
+      if (entry.version > since) {
+        changed.add(device);
+      }
+    }
+
+    List<String> removed = new ArrayList<>(tombstones.tailMap(since, false).values());
+    return new Delta(version, false, changed, removed);
+  }
+
+  private void addTombstone(long key, String address, long removedAt) {
+    forgetTombstone(key);
+    tombstones.put(removedAt, address);
+    tombstoneVersions.put(key, removedAt);
+
+    if (tombstones.size() > MAX_TOMBSTONES) {
+      Map.Entry<Long, String> oldest = tombstones.pollFirstEntry();
+      tombstoneVersions.remove(Device.packAddress(oldest.getValue()));
+      tombstoneFloor = oldest.getKey();
+    }
+  }
+
+  private void forgetTombstone(long key) {
+    Long removedAt = tombstoneVersions.remove(key);
+    if (removedAt != null) {
+      tombstones.remove(removedAt);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.Map;
+
+/**
+ * Splits the received byte stream of a connection into complete frames.
+ *
+ * Decoders keep partial frames between calls so only whole messages are handed on.
+ * An instance belongs to a single connection and is only used from its reader thread.
+ */
+interface FrameDecoder {
+  int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024;
+
+  interface FrameListener {
+    void onFrame(byte[] frame);
+  }
+
+  /** Consumes the given bytes and reports every frame they complete */
+  void decode(byte[] data, int offset, int length, FrameListener listener);
+
+  /** Drops any partially received frame */
+  void reset();
+
+  /**
+   * Creates a decoder from the 'framing' argument of connect, or returns null when the data
+   * should be passed on unframed.
+   */
+  @SuppressWarnings("unchecked")
+  static FrameDecoder fromArguments(Object argument) {
+    if (argument == null) {
+      return null;
+    }
+    if (!(argument instanceof Map)) {
+      throw new IllegalArgumentException("framing must be a map");
+    }
+
+    Map<String, Object> arguments = (Map<String, Object>) argument;
+
+    String type = (String) arguments.get("type");
+    int maxFrameLength = Arguments.intArgument(arguments, "maxFrameLength", DEFAULT_MAX_FRAME_LENGTH);
+    boolean include = !Boolean.FALSE.equals(arguments.get("includeControl"));
+
+    if (type == null || "raw".equals(type)) {
+      return null;
+    }
+
+    switch (type) {
+      case "etx":
+        return new DelimiterFrameDecoder(new byte[]{0x03}, include, maxFrameLength);
+      case "stxEtx":
+        return new StxEtxFrameDecoder(
+                (byte) Arguments.intArgument(arguments, "start", 0x02),
+                (byte) Arguments.intArgument(arguments, "end", 0x03),
+                arguments.get("escape") == null ? -1 : Arguments.intArgument(arguments, "escape", -1),
+                include,
+                maxFrameLength);
+      case "delimiter":
+        byte[] delimiter = Arguments.bytesArgument(arguments, "delimiter");
+        if (delimiter == null || delimiter.length == 0) {
+          throw new IllegalArgumentException("framing 'delimiter' requires a non-empty delimiter");
+        }
+        return new DelimiterFrameDecoder(delimiter, include, maxFrameLength);
+      case "lengthPrefixed":
+        return new LengthPrefixedFrameDecoder(
+                Arguments.intArgument(arguments, "lengthBytes", 2),
+                !Boolean.FALSE.equals(arguments.get("bigEndian")),
+                Arguments.intArgument(arguments, "lengthAdjustment", 0),
+                include,
+                maxFrameLength);
+      default:
+        throw new IllegalArgumentException("unknown framing type '" + type + "'");
+    }
+  }
+}
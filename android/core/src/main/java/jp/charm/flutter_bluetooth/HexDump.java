@@ -0,0 +1,78 @@
+package jp.charm.flutter_bluetooth;
+
+/**
+ * Readable dump of wire data, control characters by name and other non-text bytes in hex.
+ *
+ * Every byte maps to a precomputed token, so formatting is a table lookup and a copy per byte.
+ * Formatting into a caller's reusable char buffer allocates nothing.
+ */
+final class HexDump {
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private static final char[][] TOKENS = new char[256][];
+  // '<ESCAPE>'
+  static final int MAX_TOKEN_LENGTH = 8;
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      byte b = (byte) i;
+      switch (b) {
+        case 0x02:
+          TOKENS[i] = "<STX>".toCharArray();
+          break;
+        case 0x03:
+          TOKENS[i] = "<ETX>".toCharArray();
+          break;
+        case 0x1B:
+          TOKENS[i] = "<ESCAPE>".toCharArray();
+          break;
+        case 0x05:
+          TOKENS[i] = "<ENQ>".toCharArray();
+          break;
+        case 0x06:
+          TOKENS[i] = "<ACQ>".toCharArray();
+          break;
+        default:
+          if (b > 47 && b < 123) {
+            TOKENS[i] = new char[]{(char) b};
+          } else {
+            TOKENS[i] = new char[]{HEX[i >> 4], HEX[i & 0x0F]};
+          }
+      }
+    }
+  }
+
+  private HexDump() {
+  }
+
+  static String format(byte[] a) {
+    char[] out = new char[length(a, 0, a.length)];
+    format(a, 0, a.length, out, 0);
+    return new String(out);
+  }
+
+  /** Number of characters the bytes format to */
+  static int length(byte[] a, int offset, int length) {
+    int chars = 0;
+    for (int i = offset; i < offset + length; i++) {
+      chars += TOKENS[a[i] & 0xFF].length;
+    }
+    return chars;
+  }
+
+  /**
+   * Formats into a caller's buffer, which needs room for {@link #length} characters, at most
+   * {@link #MAX_TOKEN_LENGTH} per byte. Returns the position after the last character.
+   */
+  static int format(byte[] a, int offset, int length, char[] out, int position) {
+    for (int i = offset; i < offset + length; i++) {
+      char[] token = TOKENS[a[i] & 0xFF];
+      if (token.length == 1) {
+        out[position++] = token[0];
+      } else {
+        System.arraycopy(token, 0, out, position, token.length);
+        position += token.length;
+      }
+    }
+    return position;
+  }
+}
@@ -0,0 +1,73 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two microsecond buckets, cheap enough to record on
+ * every read and write. Percentiles are reported as the upper bound of their bucket, so they
+ * are accurate to within a factor of two.
+ */
+class Histogram {
+  // Bucket i holds values below 2^i microseconds, the last one everything above ~35 minutes
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void recordNanos(long nanos) {
+    record(Math.max(0, nanos / 1000));
+  }
+
+  /** Records a value in microseconds */
+  void record(long micros) {
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+
+    long current;
+    while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+      // Lost a race against another writer, try again with the new maximum
+    }
+  }
+
+  long count() {
+    return count.get();
+  }
+
+  /** Upper bound in microseconds below which the given fraction of the values fall */
+  long percentile(double fraction) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(1L << i, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /** Count, mean, p50, p90, p99 and max, all in microseconds */
+  Map<String, Object> toMap() {
+    long total = count.get();
+    Map<String, Object> map = new HashMap<>();
+    map.put("count", total);
+    map.put("mean", total == 0 ? 0 : sum.get() / total);
+    map.put("p50", percentile(0.5));
+    map.put("p90", percentile(0.9));
+    map.put("p99", percentile(0.99));
+    map.put("max", max.get());
+    return map;
+  }
+}
@@ -0,0 +1,79 @@
+package jp.charm.flutter_bluetooth;
+
+/**
+ * Emits frames that start with a 1, 2 or 4 byte length field.
+ *
+ * The payload length is the field value plus lengthAdjustment, which covers protocols whose
+ * length also counts the header or a trailing checksum.
+ */
+class LengthPrefixedFrameDecoder implements FrameDecoder {
+  private final int lengthBytes;
+  private final boolean bigEndian;
+  private final int lengthAdjustment;
+  private final boolean includeHeader;
+  private final int maxFrameLength;
+  private final ByteQueue frame = new ByteQueue(256);
+  // Payload length of the current frame, or -1 while the header is incomplete
+  private int payloadLength = -1;
+
+  LengthPrefixedFrameDecoder(int lengthBytes, boolean bigEndian, int lengthAdjustment, boolean includeHeader, int maxFrameLength) {
+    if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4) {
+      throw new IllegalArgumentException("lengthBytes must be 1, 2 or 4");
+    }
+    this.lengthBytes = lengthBytes;
+    this.bigEndian = bigEndian;
+    this.lengthAdjustment = lengthAdjustment;
+    this.includeHeader = includeHeader;
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, FrameListener listener) {
+    int position = offset;
+    int limit = offset + length;
+
+    while (position < limit) {
+      if (payloadLength < 0) {
+        frame.append(data[position++]);
+        if (frame.size() == lengthBytes) {
+          payloadLength = readLength(frame.peek(0, lengthBytes)) + lengthAdjustment;
+          if (payloadLength < 0 || payloadLength > maxFrameLength) {
+            // Corrupt header, there is nothing to resynchronise on so start over
+            reset();
+            continue;
+          }
+        } else {
+          continue;
+        }
+      } else {
+        int count = Math.min(limit - position, lengthBytes + payloadLength - frame.size());
+        frame.append(data, position, count);
+        position += count;
+      }
+
+      if (payloadLength >= 0 && frame.size() == lengthBytes + payloadLength) {
+        if (!includeHeader) {
+          frame.skip(lengthBytes);
+        }
+        byte[] out = frame.takeAll();
+        payloadLength = -1;
+        listener.onFrame(out);
+      }
+    }
+  }
+
+  private int readLength(byte[] header) {
+    int value = 0;
+    for (int i = 0; i < lengthBytes; i++) {
+      int b = header[bigEndian ? i : lengthBytes - 1 - i] & 0xFF;
+      value = (value << 8) | b;
+    }
+    return value;
+  }
+
+  @Override
+  public void reset() {
+    frame.clear();
+    payloadLength = -1;
+  }
+}
@@ -0,0 +1,21 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Creates daemon threads named 'flutter_bluetooth-<name>-<n>' so they are easy to spot in traces */
+class NamedThreadFactory implements ThreadFactory {
+  private final String prefix;
+  private final AtomicInteger count = new AtomicInteger();
+
+  NamedThreadFactory(String name) {
+    this.prefix = "flutter_bluetooth-" + name + "-";
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
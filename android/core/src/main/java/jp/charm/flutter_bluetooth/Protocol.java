@@ -0,0 +1,95 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Version and names of the wire contract between Dart and the native side, specified in
+ * protocol/PROTOCOL.md. Every platform answers 'getProtocolVersion' with the version and the
+ * methods it implements, so Dart can tell what a platform supports before calling it.
+ *
+ * The version goes up when a method, argument, event or binary format changes in a way an
+ * older peer would misread. Additions an older peer can ignore, like a new optional argument
+ * or event, keep it.
+ */
+final class Protocol {
+  static final int VERSION = 1;
+
+  static final String METHOD_CHANNEL = "flutter_bluetooth/method";
+  static final String EVENT_CHANNEL = "flutter_bluetooth/event";
+  static final String DATA_CHANNEL = "flutter_bluetooth/data";
+  static final String BULK_CHANNEL = "flutter_bluetooth/bulk";
+  // Followed by the address, the data of that connection only
+  static final String CONNECTION_DATA_CHANNEL = "flutter_bluetooth/data/";
+
+  // Unframed, 'read' returns the data up to and including this byte (ETX)
+  static final byte READ_DELIMITER = 0x03;
+
+  static final List<String> METHODS = Collections.unmodifiableList(Arrays.asList(
+          "getPlatformVersion",
+          "getProtocolVersion",
+          "isAvailable",
+          "isOn",
+          "isConnected",
+          "getConnections",
+          "openSettings",
+          "connect",
+          "cancelConnect",
+          "disconnect",
+          "listen",
+          "stopListening",
+          "isListening",
+          "fetchUuids",
+          "discover",
+          "bonded",
+          "startLeScan",
+          "stopLeScan",
+          "startScanSchedule",
+          "stopScanSchedule",
+          "getScanScheduleState",
+          "getDeviceList",
+          "getDeviceListSince",
+          "setDeviceCacheTtl",
+          "clearDeviceCache",
+          "setDeviceUpdateInterval",
+          "read",
+          "readBuffered",
+          "write",
+          "transact",
+          "getWriteQueueDepth",
+          "setWriteRateLimit",
+          "dumpTrace",
+          "setWireLogging",
+          "getStats",
+          "setStatsInterval"));
+
+  // Values of the 'event' key of the maps sent on the event channel
+  static final List<String> EVENTS = Collections.unmodifiableList(Arrays.asList(
+          "adapterState",
+          "aclConnected",
+          "aclDisconnected",
+          "connectionState",
+          "bondState",
+          "discoveryStarted",
+          "discoveryFinished",
+          "uuids",
+          "devices",
+          "leScanFailed",
+          "scanState",
+          "scanFinished",
+          "reconnecting",
+          "reconnected",
+          "reconnectFailed",
+          "clientConnected",
+          "clientRejected",
+          "listenFailed",
+          "receiveHighWater",
+          "receiveLowWater",
+          "receiveOverflow",
+          "bulkProgress",
+          "stats"));
+
+  private Protocol() {
+  }
+}
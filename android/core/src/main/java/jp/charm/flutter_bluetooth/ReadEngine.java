@@ -0,0 +1,66 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads from a socket stream in bulk into a single reusable buffer.
+ *
+ * Each {@link #fill()} blocks until data arrives and then keeps reading whatever is already
+ * available, so a burst from the peer is returned as one slice instead of one call per byte.
+ * The slice is only valid until the next fill.
+ */
+class ReadEngine {
+  static final int DEFAULT_CAPACITY = 8192;
+
+  private final InputStream inputStream;
+  private final byte[] buffer;
+  private int length = 0;
+
+  ReadEngine(InputStream inputStream) {
+    this(inputStream, DEFAULT_CAPACITY);
+  }
+
+  ReadEngine(InputStream inputStream, int capacity) {
+    this.inputStream = inputStream;
+    this.buffer = new byte[capacity];
+  }
+
+  /** Blocks until data is available and returns the number of bytes read, or -1 at end of stream */
+  int fill() throws IOException {
+    length = 0;
+
+    int bytes = inputStream.read(buffer, 0, buffer.length);
+    if (bytes == -1) {
+      return -1;
+    }
+    length = bytes;
+
+    // Coalesce whatever else already arrived without blocking again
+    int available;
+    while (length < buffer.length && (available = inputStream.available()) > 0) {
+      bytes = inputStream.read(buffer, length, Math.min(available, buffer.length - length));
+      if (bytes <= 0) {
+        break;
+      }
+      length += bytes;
+    }
+
+    return length;
+  }
+
+  /** Backing array of the current slice, starting at offset 0 */
+  byte[] array() {
+    return buffer;
+  }
+
+  int length() {
+    return length;
+  }
+
+  /** Copy of the current slice for handing off to another thread */
+  byte[] copy() {
+    return Arrays.copyOf(buffer, length);
+  }
+}
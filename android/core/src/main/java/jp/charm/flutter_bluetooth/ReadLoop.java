@@ -0,0 +1,55 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads one link until its stream ends, handing each burst on as it arrives or, with a decoder,
+ * each complete frame. Depends on the stream only, so it runs against any InputStream.
+ */
+class ReadLoop {
+  interface Listener extends FrameDecoder.FrameListener {
+    /** Unframed data, the engine's slice is only valid until the call returns */
+    void onData(ReadEngine engine);
+  }
+
+  private final ReadEngine engine;
+  // Splits incoming data into frames, null to pass data on as it arrives
+  private final FrameDecoder decoder;
+  private final ConnectionStats stats;
+  private final WireTrace trace;
+  // When the last read returned, only used by the reading thread
+  private long readAt;
+
+  /** The stats and trace may be null */
+  ReadLoop(InputStream inputStream, FrameDecoder decoder, ConnectionStats stats, WireTrace trace) {
+    this.engine = new ReadEngine(inputStream);
+    this.decoder = decoder;
+    this.stats = stats;
+    this.trace = trace;
+  }
+
+  /** Blocks until the stream ends, an IOException means the link dropped or was closed */
+  void run(Listener listener) throws IOException {
+    while (engine.fill() != -1) {
+      readAt = System.nanoTime();
+      if (stats != null) {
+        stats.bytesIn.addAndGet(engine.length());
+      }
+      if (trace != null) {
+        trace.record(WireTrace.IN, engine.array(), 0, engine.length());
+      }
+
+      if (decoder == null) {
+        listener.onData(engine);
+      } else {
+        decoder.decode(engine.array(), 0, engine.length(), listener);
+      }
+    }
+  }
+
+  /** System.nanoTime() of the read that produced the data being handed on */
+  long readAt() {
+    return readAt;
+  }
+}
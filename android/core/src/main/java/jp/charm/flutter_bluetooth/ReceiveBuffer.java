@@ -0,0 +1,320 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed capacity ring of received data, filled by the reader thread and emptied by whoever
+ * consumes it, the data streams or 'read' polls. Memory stays bounded however far behind the
+ * consumer falls; what happens when the ring is full is up to the overflow policy.
+ *
+ * Unframed the ring holds a plain byte stream. Framed each frame is kept with its length in
+ * front, so frames are dropped and read whole.
+ *
+ * Crossing the high water mark on the way up and the low water mark on the way down is
+ * reported to the listener, outside of the buffer's lock.
+ */
+class ReceiveBuffer {
+  static final int DEFAULT_CAPACITY = 256 * 1024;
+
+  // Overflow policies
+  // The reader waits for room, and the peer is held back by RFCOMM flow control
+  static final int BLOCK = 0;
+  // The oldest data is discarded for the new
+  static final int DROP_OLDEST = 1;
+  // The write fails, and the connection is closed
+  static final int FAIL = 2;
+
+  // Length in front of each frame
+  private static final int HEADER = 4;
+
+  interface Listener {
+    void onHighWater(int size);
+
+    void onLowWater(int size);
+  }
+
+  static class Options {
+    static final Options DEFAULT = new Options(DEFAULT_CAPACITY, DROP_OLDEST, DEFAULT_CAPACITY / 4 * 3, DEFAULT_CAPACITY / 4);
+
+    final int capacity;
+    final int overflow;
+    final int highWater;
+    final int lowWater;
+
+    Options(int capacity, int overflow, int highWater, int lowWater) {
+      this.capacity = Math.max(HEADER + 1, capacity);
+      this.overflow = overflow;
+      this.highWater = Math.min(this.capacity, highWater);
+      this.lowWater = Math.min(this.highWater, lowWater);
+    }
+
+    /**
+     * Reads the 'receiveBuffer' argument: capacity, overflow ('block', 'dropOldest' or
+     * 'fail'), highWater and lowWater, by default at three and one quarter of the capacity
+     */
+    @SuppressWarnings("unchecked")
+    static Options fromArguments(Object argument) {
+      if (!(argument instanceof Map)) {
+        return DEFAULT;
+      }
+
+      Map<String, Object> arguments = (Map<String, Object>) argument;
+      int capacity = Arguments.intArgument(arguments, "capacity", DEFAULT_CAPACITY);
+      Object overflow = arguments.get("overflow");
+      int policy;
+      if (overflow == null || "dropOldest".equals(overflow)) {
+        policy = DROP_OLDEST;
+      } else if ("block".equals(overflow)) {
+        policy = BLOCK;
+      } else if ("fail".equals(overflow)) {
+        policy = FAIL;
+      } else {
+        throw new IllegalArgumentException("unknown overflow policy: " + overflow);
+      }
+      return new Options(capacity, policy,
+              Arguments.intArgument(arguments, "highWater", capacity / 4 * 3),
+              Arguments.intArgument(arguments, "lowWater", capacity / 4));
+    }
+  }
+
+  private final byte[] ring;
+  private final boolean framed;
+  private final int overflow;
+  private final int highWater;
+  private final int lowWater;
+  private final Listener listener;
+  // Start of the oldest data and the number of bytes held, frame headers included
+  private int head = 0;
+  private int used = 0;
+  private long dropped = 0;
+  // Above the high water mark and not yet back down to the low one
+  private boolean high = false;
+  private boolean closed = false;
+
+  /** @param listener told about water marks, may be null */
+  ReceiveBuffer(Options options, boolean framed, Listener listener) {
+    this.ring = new byte[options.capacity];
+    this.framed = framed;
+    this.overflow = options.overflow;
+    this.highWater = options.highWater;
+    this.lowWater = options.lowWater;
+    this.listener = listener;
+  }
+
+  /**
+   * Adds received data, or a frame when framed. Returns false when it doesn't fit and the
+   * policy is to fail; a frame larger than the whole ring never fits, and is dropped instead
+   * when dropping the oldest data.
+   */
+  boolean write(byte[] data, int offset, int length) throws InterruptedException {
+    int size;
+    synchronized (this) {
+      if (closed) {
+        return true;
+      }
+
+      int needed = framed ? HEADER + length : length;
+      if (needed > ring.length) {
+        if (overflow != DROP_OLDEST) {
+          return false;
+        }
+        if (framed) {
+          dropped += length;
+          return true;
+        }
+        // Unframed the newest bytes win
+        dropped += used + length - ring.length;
+        offset += length - ring.length;
+        length = ring.length;
+        needed = length;
+        head = 0;
+        used = 0;
+      }
+
+      while (ring.length - used < needed) {
+        if (overflow == FAIL) {
+          return false;
+        } else if (overflow == BLOCK) {
+          wait();
+          if (closed) {
+            return true;
+          }
+        } else {
+          dropOldest(needed - (ring.length - used));
+        }
+      }
+
+      if (framed) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+          ring[(head + used++) % ring.length] = (byte) (length >>> shift);
+        }
+      }
+      int tail = (head + used) % ring.length;
+      int first = Math.min(length, ring.length - tail);
+      System.arraycopy(data, offset, ring, tail, first);
+      System.arraycopy(data, offset + first, ring, 0, length - first);
+      used += length;
+
+      if (high || used < highWater) {
+        return true;
+      }
+      high = true;
+      size = used;
+    }
+
+    if (listener != null) {
+      listener.onHighWater(size);
+    }
+    return true;
+  }
+
+  /** The next frame, empty when there is none */
+  byte[] readFrame() {
+    byte[] frame;
+    synchronized (this) {
+      frame = used == 0 ? new byte[0] : take(frameLength());
+    }
+    checkLowWater();
+    return frame;
+  }
+
+  /**
+   * What a single 'read' call returns: the next frame, or unframed the bytes up to and
+   * including the first ETX
+   */
+  byte[] readMessage() {
+    return framed ? readFrame() : readUntil(Protocol.READ_DELIMITER);
+  }
+
+  /** Buffered bytes up to and including the first delimiter, everything if there is none */
+  byte[] readUntil(byte delimiter) {
+    byte[] data;
+    synchronized (this) {
+      int length = used;
+      for (int i = 0; i < used; i++) {
+        if (ring[(head + i) % ring.length] == delimiter) {
+          length = i + 1;
+          break;
+        }
+      }
+      data = take(length);
+    }
+    checkLowWater();
+    return data;
+  }
+
+  /**
+   * Removes up to maxBytes of buffered data in one go, one entry per frame. At least one frame
+   * is returned even when it is larger than maxBytes.
+   */
+  List<byte[]> read(int maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    List<byte[]> data = new ArrayList<>();
+    synchronized (this) {
+      if (!framed) {
+        if (used > 0) {
+          data.add(take(Math.min(used, maxBytes)));
+        }
+      } else {
+        int total = 0;
+        while (used > 0 && (data.isEmpty() || total + frameLength() <= maxBytes)) {
+          int length = frameLength();
+          data.add(take(length));
+          total += length;
+        }
+      }
+    }
+    checkLowWater();
+    return data;
+  }
+
+  List<byte[]> drain() {
+    return read(Integer.MAX_VALUE);
+  }
+
+  /** Bytes held, frame headers included */
+  synchronized int size() {
+    return used;
+  }
+
+  int capacity() {
+    return ring.length;
+  }
+
+  /** Bytes discarded so far by dropping the oldest data */
+  synchronized long dropped() {
+    return dropped;
+  }
+
+  /** Releases a reader waiting for room, writes are discarded from now on */
+  synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  private void checkLowWater() {
+    int size;
+    synchronized (this) {
+      if (!high || used > lowWater) {
+        return;
+      }
+      high = false;
+      size = used;
+    }
+
+    if (listener != null) {
+      listener.onLowWater(size);
+    }
+  }
+
+  /** Length of the oldest frame, whose header is skipped */
+  private int frameLength() {
+    int length = 0;
+    for (int i = 0; i < HEADER; i++) {
+      length = (length << 8) | (ring[(head + i) % ring.length] & 0xFF);
+    }
+    return length;
+  }
+
+  /** Removes length bytes, or the oldest frame of that length when framed */
+  private byte[] take(int length) {
+    if (framed) {
+      skip(HEADER);
+    }
+    byte[] data = new byte[length];
+    int first = Math.min(length, ring.length - head);
+    System.arraycopy(ring, head, data, 0, first);
+    System.arraycopy(ring, 0, data, first, length - first);
+    skip(length);
+    notifyAll();
+    return data;
+  }
+
+  private void dropOldest(int bytes) {
+    if (!framed) {
+      skip(bytes);
+      dropped += bytes;
+      return;
+    }
+
+    int freed = 0;
+    while (freed < bytes) {
+      int length = frameLength();
+      skip(HEADER + length);
+      freed += HEADER + length;
+      dropped += length;
+    }
+  }
+
+  private void skip(int length) {
+    head = (head + length) % ring.length;
+    used -= length;
+    if (used == 0) {
+      head = 0;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.Map;
+import java.util.Random;
+
+/** Retry schedule for re-establishing a dropped link: exponential backoff with jitter */
+class ReconnectPolicy {
+  static final long DEFAULT_INITIAL_DELAY = 500;
+  static final long DEFAULT_MAX_DELAY = 30000;
+
+  final long initialDelay;
+  final long maxDelay;
+  // 0 retries forever until the connection is closed
+  final int maxAttempts;
+  private final Random random = new Random();
+
+  ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+    this.initialDelay = Math.max(1, initialDelay);
+    this.maxDelay = Math.max(this.initialDelay, maxDelay);
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Delay before the given attempt, counted from 0. Half of the backoff is fixed and half
+   * random, so peers that dropped together don't all retry at the same moment.
+   */
+  long delay(int attempt) {
+    // Doubling stops at maxDelay, before it could overflow
+    long backoff = initialDelay;
+    for (int i = 0; i < attempt && backoff < maxDelay; i++) {
+      backoff = backoff > maxDelay / 2 ? maxDelay : backoff * 2;
+    }
+    long half = backoff / 2;
+    return half + (long) (random.nextDouble() * (backoff - half));
+  }
+
+  boolean exhausted(int attempt) {
+    return maxAttempts > 0 && attempt >= maxAttempts;
+  }
+
+  /** Reads the 'reconnect' argument of connect, true for the defaults or a map of settings */
+  @SuppressWarnings("unchecked")
+  static ReconnectPolicy fromArguments(Object argument) {
+    if (Boolean.TRUE.equals(argument)) {
+      return new ReconnectPolicy(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, 0);
+    }
+    if (!(argument instanceof Map)) {
+      return null;
+    }
+
+    Map<String, Object> arguments = (Map<String, Object>) argument;
+    return new ReconnectPolicy(
+            Arguments.longArgument(arguments, "initialDelay", DEFAULT_INITIAL_DELAY),
+            Arguments.longArgument(arguments, "maxDelay", DEFAULT_MAX_DELAY),
+            Arguments.intArgument(arguments, "maxAttempts", 0));
+  }
+}
@@ -0,0 +1,121 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Decides whether a received frame is the reply to a transaction's request */
+interface ReplyMatcher {
+  ReplyMatcher ANY = new ReplyMatcher() {
+    @Override
+    public boolean matches(byte[] request, byte[] reply) {
+      return true;
+    }
+  };
+
+  boolean matches(byte[] request, byte[] reply);
+
+  /**
+   * Creates a matcher from the 'matcher' argument of transact, null matches the next frame:
+   * {'type': 'any'}, {'type': 'prefix', 'bytes', 'offset'}, {'type': 'equals', 'bytes'},
+   * {'type': 'echo', 'offset', 'length', 'replyOffset'} or {'type': 'anyOf', 'matchers': [...]}.
+   */
+  @SuppressWarnings("unchecked")
+  static ReplyMatcher fromArguments(Object argument) {
+    if (argument == null) {
+      return ANY;
+    }
+    if (!(argument instanceof Map)) {
+      throw new IllegalArgumentException("matcher must be a map");
+    }
+
+    Map<String, Object> arguments = (Map<String, Object>) argument;
+
+    String type = (String) arguments.get("type");
+    if (type == null) {
+      throw new IllegalArgumentException("matcher type missing");
+    }
+
+    switch (type) {
+      case "any":
+        return ANY;
+      case "prefix": {
+        final byte[] bytes = requireBytes(arguments);
+        final int offset = Arguments.intArgument(arguments, "offset", 0);
+        return new ReplyMatcher() {
+          @Override
+          public boolean matches(byte[] request, byte[] reply) {
+            return regionMatches(reply, offset, bytes, 0, bytes.length);
+          }
+        };
+      }
+      case "equals": {
+        final byte[] bytes = requireBytes(arguments);
+        return new ReplyMatcher() {
+          @Override
+          public boolean matches(byte[] request, byte[] reply) {
+            return reply.length == bytes.length && regionMatches(reply, 0, bytes, 0, bytes.length);
+          }
+        };
+      }
+      case "echo": {
+        // The reply repeats part of the request, typically a sequence number or command code
+        final int offset = Arguments.intArgument(arguments, "offset", 0);
+        final int length = Arguments.intArgument(arguments, "length", 1);
+        final int replyOffset = Arguments.intArgument(arguments, "replyOffset", offset);
+        return new ReplyMatcher() {
+          @Override
+          public boolean matches(byte[] request, byte[] reply) {
+            return regionMatches(reply, replyOffset, request, offset, length);
+          }
+        };
+      }
+      case "anyOf": {
+        Object list = arguments.get("matchers");
+        if (!(list instanceof List)) {
+          throw new IllegalArgumentException("matcher 'anyOf' requires a list of matchers");
+        }
+        final List<ReplyMatcher> matchers = new ArrayList<>();
+        for (Object matcher : (List<?>) list) {
+          if (matcher == null) {
+            throw new IllegalArgumentException("matcher 'anyOf' requires a list of matchers");
+          }
+          matchers.add(fromArguments(matcher));
+        }
+        return new ReplyMatcher() {
+          @Override
+          public boolean matches(byte[] request, byte[] reply) {
+            for (ReplyMatcher matcher : matchers) {
+              if (matcher.matches(request, reply)) {
+                return true;
+              }
+            }
+            return false;
+          }
+        };
+      }
+      default:
+        throw new IllegalArgumentException("unknown matcher type '" + type + "'");
+    }
+  }
+
+  static byte[] requireBytes(Map<String, Object> arguments) {
+    byte[] bytes = Arguments.bytesArgument(arguments, "bytes");
+    if (bytes == null || bytes.length == 0) {
+      throw new IllegalArgumentException("matcher '" + arguments.get("type") + "' requires non-empty bytes");
+    }
+    return bytes;
+  }
+
+  static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+    if (aOffset < 0 || bOffset < 0 || aOffset + length > a.length || bOffset + length > b.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (a[aOffset + i] != b[bOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
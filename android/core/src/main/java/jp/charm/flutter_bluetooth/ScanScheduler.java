@@ -0,0 +1,249 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs discovery in duty cycles: scans for a window, then leaves the radio alone for the rest
+ * of the interval. Scanning pauses whenever the radio is busy, e.g. with a connect being set
+ * up or a bulk transfer, since inquiry takes most of the air time those need, and resumes once
+ * it is free. A schedule ends early once the target addresses or enough devices were found.
+ *
+ * All timing runs on the given executor; callbacks to the radio and the listener are made
+ * while holding the scheduler's lock.
+ */
+class ScanScheduler {
+  static final long DEFAULT_WINDOW = 12000;
+  static final long DEFAULT_INTERVAL = 30000;
+  static final long DEFAULT_DURATION = 120000;
+  // How often a running schedule checks whether the radio got busy or free again
+  static final long BUSY_CHECK = 500;
+
+  static final String IDLE = "idle";
+  static final String SCANNING = "scanning";
+  static final String WAITING = "waiting";
+  static final String PAUSED = "paused";
+
+  // Why a schedule ended
+  static final String TARGETS_FOUND = "targetsFound";
+  static final String MIN_DEVICES = "minDevices";
+  static final String TIMEOUT = "timeout";
+  static final String STOPPED = "stopped";
+
+  interface Radio {
+    void startScan();
+
+    void stopScan();
+
+    /** True while scanning would slow down something more important */
+    boolean busy();
+  }
+
+  interface Listener {
+    void onState(String state);
+
+    void onFinished(String reason, int found);
+  }
+
+  static class Options {
+    // Scan time per interval, the whole interval scans when they are equal
+    final long window;
+    final long interval;
+    // Total time until the schedule ends, 0 to run until stopped
+    final long duration;
+    // Addresses which, once all found, end the schedule; empty for none
+    final Set<String> targets;
+    // Number of devices which, once found, ends the schedule; 0 for none
+    final int minDevices;
+
+    Options(long window, long interval, long duration, Set<String> targets, int minDevices) {
+      this.window = Math.max(1, window);
+      this.interval = Math.max(this.window, interval);
+      this.duration = Math.max(0, duration);
+      this.targets = targets;
+      this.minDevices = Math.max(0, minDevices);
+    }
+
+    /** Reads window, interval, duration, targets and minDevices, all times in milliseconds */
+    static Options fromArguments(Map<String, Object> arguments) {
+      Set<String> targets = new HashSet<>();
+      Object targetArguments = arguments == null ? null : arguments.get("targets");
+      if (targetArguments instanceof List) {
+        for (Object address : (List<?>) targetArguments) {
+          targets.add(((String) address).toUpperCase(Locale.US));
+        }
+      }
+
+      return new Options(
+              Arguments.longArgument(arguments, "window", DEFAULT_WINDOW),
+              Arguments.longArgument(arguments, "interval", DEFAULT_INTERVAL),
+              Arguments.longArgument(arguments, "duration", DEFAULT_DURATION),
+              targets,
+              Arguments.intArgument(arguments, "minDevices", 0));
+    }
+  }
+
+  private final ScheduledExecutorService executor;
+  private final Radio radio;
+  private final Listener listener;
+
+  private Options options;
+  private String state = IDLE;
+  private final Set<String> found = new HashSet<>();
+  // Bumped by every start and phase change, so timers that fire late do nothing
+  private long run = 0;
+  private long phase = 0;
+  private ScheduledFuture<?> phaseTimer;
+  private ScheduledFuture<?> busyCheck;
+  private ScheduledFuture<?> deadline;
+
+  ScanScheduler(ScheduledExecutorService executor, Radio radio, Listener listener) {
+    this.executor = executor;
+    this.radio = radio;
+    this.listener = listener;
+  }
+
+  synchronized String state() {
+    return state;
+  }
+
+  /** Starts a schedule, ending the one running as stopped */
+  synchronized void start(Options options) {
+    if (!IDLE.equals(state)) {
+      finish(STOPPED);
+    }
+
+    this.options = options;
+    found.clear();
+    final long current = ++run;
+    busyCheck = executor.scheduleWithFixedDelay(() -> checkBusy(current), BUSY_CHECK, BUSY_CHECK, TimeUnit.MILLISECONDS);
+    if (options.duration > 0) {
+      deadline = executor.schedule(() -> {
+        synchronized (ScanScheduler.this) {
+          if (run == current && !IDLE.equals(state)) {
+            finish(TIMEOUT);
+          }
+        }
+      }, options.duration, TimeUnit.MILLISECONDS);
+    }
+    beginWindow();
+  }
+
+  synchronized void stop() {
+    if (!IDLE.equals(state)) {
+      finish(STOPPED);
+    }
+  }
+
+  /** Counts a device seen by the scan, which may end the schedule */
+  synchronized void found(String address) {
+    if (IDLE.equals(state)) {
+      return;
+    }
+
+    found.add(address.toUpperCase(Locale.US));
+    if (!options.targets.isEmpty() && found.containsAll(options.targets)) {
+      finish(TARGETS_FOUND);
+    } else if (options.minDevices > 0 && found.size() >= options.minDevices) {
+      finish(MIN_DEVICES);
+    }
+  }
+
+  /** Pauses a running scan right away when the radio just got busy, e.g. as a connect starts */
+  synchronized void checkBusy() {
+    checkBusy(run);
+  }
+
+  private synchronized void checkBusy(long current) {
+    if (current != run) {
+      return;
+    }
+    if (SCANNING.equals(state) && radio.busy()) {
+      pause();
+    } else if (PAUSED.equals(state) && !radio.busy()) {
+      beginWindow();
+    }
+  }
+
+  private void beginWindow() {
+    if (radio.busy()) {
+      pause();
+      return;
+    }
+
+    radio.startScan();
+    setState(SCANNING);
+    if (options.window < options.interval) {
+      schedulePhase(this::endWindow, options.window);
+    } else {
+      // Scanning all the time, the scan is only restarted to keep inquiry going
+      schedulePhase(this::restartWindow, options.window);
+    }
+  }
+
+  private void endWindow() {
+    radio.stopScan();
+    setState(WAITING);
+    schedulePhase(this::beginWindow, options.interval - options.window);
+  }
+
+  private void restartWindow() {
+    radio.stopScan();
+    beginWindow();
+  }
+
+  private void pause() {
+    cancelPhase();
+    if (SCANNING.equals(state)) {
+      radio.stopScan();
+    }
+    setState(PAUSED);
+  }
+
+  private void finish(String reason) {
+    cancelPhase();
+    busyCheck.cancel(false);
+    if (deadline != null) {
+      deadline.cancel(false);
+      deadline = null;
+    }
+    if (SCANNING.equals(state)) {
+      radio.stopScan();
+    }
+    run++;
+    setState(IDLE);
+    listener.onFinished(reason, found.size());
+  }
+
+  private void setState(String state) {
+    if (!state.equals(this.state)) {
+      this.state = state;
+      listener.onState(state);
+    }
+  }
+
+  private void schedulePhase(final Runnable next, long delay) {
+    final long current = ++phase;
+    phaseTimer = executor.schedule(() -> {
+      synchronized (ScanScheduler.this) {
+        if (phase == current) {
+          next.run();
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void cancelPhase() {
+    phase++;
+    if (phaseTimer != null) {
+      phaseTimer.cancel(false);
+      phaseTimer = null;
+    }
+  }
+}
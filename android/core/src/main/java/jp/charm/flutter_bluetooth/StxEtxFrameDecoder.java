@@ -0,0 +1,82 @@
+package jp.charm.flutter_bluetooth;
+
+/**
+ * Emits the bytes between a start (STX) and end (ETX) control byte.
+ *
+ * When an escape byte is configured, the byte following it is taken literally so STX / ETX can
+ * appear inside the payload. Bytes received outside a frame are discarded.
+ */
+class StxEtxFrameDecoder implements FrameDecoder {
+  private final byte start;
+  private final byte end;
+  private final int escape;
+  private final boolean includeControl;
+  private final int maxFrameLength;
+  private final ByteQueue frame = new ByteQueue(256);
+  private boolean inFrame = false;
+  private boolean escaped = false;
+
+  /** @param escape escape byte, or -1 for none */
+  StxEtxFrameDecoder(byte start, byte end, int escape, boolean includeControl, int maxFrameLength) {
+    this.start = start;
+    this.end = end;
+    this.escape = escape;
+    this.includeControl = includeControl;
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  public void decode(byte[] data, int offset, int length, FrameListener listener) {
+    for (int i = offset; i < offset + length; i++) {
+      byte b = data[i];
+
+      if (!inFrame) {
+        if (b == start) {
+          inFrame = true;
+          if (includeControl) {
+            frame.append(b);
+          }
+        }
+        continue;
+      }
+
+      if (escaped) {
+        escaped = false;
+        frame.append(b);
+      } else if (escape >= 0 && b == (byte) escape) {
+        escaped = true;
+        if (includeControl) {
+          frame.append(b);
+        }
+      } else if (b == end) {
+        if (includeControl) {
+          frame.append(b);
+        }
+        byte[] out = frame.takeAll();
+        inFrame = false;
+        listener.onFrame(out);
+        continue;
+      } else if (b == start) {
+        // A new frame started before the previous one ended, resynchronise on it
+        frame.clear();
+        if (includeControl) {
+          frame.append(b);
+        }
+        continue;
+      } else {
+        frame.append(b);
+      }
+
+      if (frame.size() > maxFrameLength) {
+        reset();
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+    frame.clear();
+    inFrame = false;
+    escaped = false;
+  }
+}
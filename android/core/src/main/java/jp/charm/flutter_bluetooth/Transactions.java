@@ -0,0 +1,133 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Request/response transactions in flight on one connection.
+ *
+ * A transaction is registered when its request is queued, but only matches frames once it is
+ * armed ({@link #arm}) by the writer right before the request goes out. Until then the request
+ * may wait behind a replay, the rate limit or a down link, and a stale frame received meanwhile
+ * must not be taken for its reply. Arming ahead of the write means a fast reply can't slip past.
+ * Each received frame is offered to the armed transactions oldest first and completes the first
+ * one whose matcher accepts it; frames nobody waits for go on to the data streams. Several
+ * transactions can be pipelined, with replies told apart by their matchers.
+ */
+class Transactions {
+  static final int DEFAULT_MAX_PENDING = 32;
+
+  interface Callback {
+    void onReply(byte[] reply);
+
+    void onError(String code, String message);
+  }
+
+  static class Transaction {
+    final byte[] request;
+    final ReplyMatcher matcher;
+    final Callback callback;
+    private Future<?> timeout;
+    private boolean armed = false;
+
+    Transaction(byte[] request, ReplyMatcher matcher, Callback callback) {
+      this.request = request;
+      this.matcher = matcher;
+      this.callback = callback;
+    }
+  }
+
+  private final LinkedList<Transaction> pending = new LinkedList<>();
+  private final int maxPending;
+  // Lets the reader skip locking while nothing is outstanding, the common case
+  private volatile int size = 0;
+
+  Transactions(int maxPending) {
+    this.maxPending = maxPending;
+  }
+
+  /** Registers a transaction, returns null when maxPending are already outstanding */
+  synchronized Transaction add(byte[] request, ReplyMatcher matcher, Callback callback) {
+    if (pending.size() >= maxPending) {
+      return null;
+    }
+    Transaction transaction = new Transaction(request, matcher, callback);
+    pending.add(transaction);
+    size = pending.size();
+    return transaction;
+  }
+
+  /** Attaches the timer that fails the transaction, cancelled when it completes first */
+  synchronized void setTimeout(Transaction transaction, Future<?> timeout) {
+    if (pending.contains(transaction)) {
+      transaction.timeout = timeout;
+    } else {
+      timeout.cancel(false);
+    }
+  }
+
+  /** Lets the transaction match received frames, called as its request is about to be written */
+  synchronized void arm(Transaction transaction) {
+    transaction.armed = true;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Completes the oldest transaction the frame answers, returns false if none waits for it */
+  boolean complete(byte[] frame) {
+    if (size == 0) {
+      return false;
+    }
+
+    Transaction match = null;
+    synchronized (this) {
+      for (Iterator<Transaction> it = pending.iterator(); it.hasNext(); ) {
+        Transaction transaction = it.next();
+        if (transaction.armed && transaction.matcher.matches(transaction.request, frame)) {
+          it.remove();
+          match = transaction;
+          break;
+        }
+      }
+      size = pending.size();
+    }
+
+    if (match == null) {
+      return false;
+    }
+    if (match.timeout != null) {
+      match.timeout.cancel(false);
+    }
+    match.callback.onReply(frame);
+    return true;
+  }
+
+  /** Fails the transaction unless it has already completed */
+  void fail(Transaction transaction, String code, String message) {
+    synchronized (this) {
+      if (!pending.remove(transaction)) {
+        return;
+      }
+      size = pending.size();
+    }
+    if (transaction.timeout != null) {
+      transaction.timeout.cancel(false);
+    }
+    transaction.callback.onError(code, message);
+  }
+
+  void failAll(String code, String message) {
+    List<Transaction> failed;
+    synchronized (this) {
+      failed = new ArrayList<>(pending);
+    }
+    for (Transaction transaction : failed) {
+      fail(transaction, code, message);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package jp.charm.flutter_bluetooth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last bytes sent and received on a connection so they can be dumped on demand.
+ *
+ * Records go into a fixed ring buffer, oldest dropped first, so capture costs one copy per read
+ * or write and never allocates; formatting only happens in {@link #dump()}. Optionally each
+ * record is also logged as a hex dump, limited to a number of lines per second so a chatty
+ * peer can't flood the log.
+ */
+class WireTrace {
+  static final int DEFAULT_CAPACITY = 16 * 1024;
+  static final int IN = 0;
+  static final int OUT = 1;
+
+  // Bytes of a record logged at most, the rest is elided
+  private static final int LOG_BYTES = 256;
+  // Direction (1), time (8) and length (4) in front of each record's data
+  private static final int HEADER = 13;
+
+  interface Logger {
+    void log(String line);
+  }
+
+  private final String label;
+  private final byte[] ring;
+  // Start of the oldest record and where the next one goes
+  private int head = 0;
+  private int tail = 0;
+  private int used = 0;
+
+  private Logger logger;
+  // Token bucket of log lines, refilled at linesPerSecond
+  private int linesPerSecond;
+  private double tokens;
+  private long refilledAt;
+  private int suppressed = 0;
+  private final StringBuilder line = new StringBuilder(128 + LOG_BYTES * 2);
+  private final char[] hex = new char[LOG_BYTES * HexDump.MAX_TOKEN_LENGTH];
+
+  WireTrace(String label, int capacity) {
+    this.label = label;
+    this.ring = new byte[Math.max(capacity, HEADER + 1)];
+  }
+
+  /** Logs every record up to linesPerSecond, a null logger stops logging */
+  synchronized void setLogger(Logger logger, int linesPerSecond) {
+    this.logger = logger;
+    this.linesPerSecond = Math.max(1, linesPerSecond);
+    this.tokens = this.linesPerSecond;
+    this.refilledAt = System.nanoTime();
+    this.suppressed = 0;
+  }
+
+  synchronized void record(int direction, byte[] data, int offset, int length) {
+    if (logger != null) {
+      log(direction, data, offset, length);
+    }
+
+    // A record larger than the whole ring keeps its end
+    int max = ring.length - HEADER;
+    if (length > max) {
+      offset += length - max;
+      length = max;
+    }
+
+    while (ring.length - used < HEADER + length) {
+      dropOldest();
+    }
+
+    put(direction);
+    putLong(System.currentTimeMillis());
+    putInt(length);
+
+    int first = Math.min(length, ring.length - tail);
+    System.arraycopy(data, offset, ring, tail, first);
+    System.arraycopy(data, offset + first, ring, 0, length - first);
+    tail = (tail + length) % ring.length;
+    used += length;
+  }
+
+  /** Records oldest first as maps of direction ('in' or 'out'), time, data and a readable text */
+  synchronized List<Map<String, Object>> dump() {
+    List<Map<String, Object>> records = new ArrayList<>();
+
+    int position = head;
+    int remaining = used;
+    while (remaining > 0) {
+      int direction = get(position);
+      long time = getLong(position + 1);
+      int length = getInt(position + 9);
+
+      byte[] data = new byte[length];
+      int start = (position + HEADER) % ring.length;
+      int first = Math.min(length, ring.length - start);
+      System.arraycopy(ring, start, data, 0, first);
+      System.arraycopy(ring, 0, data, first, length - first);
+
+      Map<String, Object> record = new HashMap<>();
+      record.put("direction", direction == OUT ? "out" : "in");
+      record.put("time", time);
+      record.put("data", data);
+      record.put("text", HexDump.format(data));
+      records.add(record);
+
+      position = (position + HEADER + length) % ring.length;
+      remaining -= HEADER + length;
+    }
+
+    return records;
+  }
+
+  synchronized void clear() {
+    head = 0;
+    tail = 0;
+    used = 0;
+  }
+
+  private void log(int direction, byte[] data, int offset, int length) {
+    long now = System.nanoTime();
+    tokens = Math.min(linesPerSecond, tokens + (now - refilledAt) * linesPerSecond / 1e9);
+    refilledAt = now;
+    if (tokens < 1) {
+      suppressed++;
+      return;
+    }
+    tokens--;
+
+    line.setLength(0);
+    line.append(label).append(direction == OUT ? " >> " : " << ");
+    line.append(hex, 0, HexDump.format(data, offset, Math.min(length, LOG_BYTES), hex, 0));
+    if (length > LOG_BYTES) {
+      line.append("... (").append(length).append(" bytes)");
+    }
+    if (suppressed > 0) {
+      line.append(" [").append(suppressed).append(" records not logged]");
+      suppressed = 0;
+    }
+    logger.log(line.toString());
+  }
+
+  private void dropOldest() {
+    int size = HEADER + getInt(head + 9);
+    head = (head + size) % ring.length;
+    used -= size;
+  }
+
+  private void put(int value) {
+    ring[tail] = (byte) value;
+    tail = (tail + 1) % ring.length;
+    used++;
+  }
+
+  private void putInt(int value) {
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      put(value >>> shift);
+    }
+  }
+
+  private void putLong(long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      put((int) (value >>> shift));
+    }
+  }
+
+  private int get(int position) {
+    return ring[position % ring.length] & 0xFF;
+  }
+
+  private int getInt(int position) {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | get(position + i);
+    }
+    return value;
+  }
+
+  private long getLong(int position) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | get(position + i);
+    }
+    return value;
+  }
+}
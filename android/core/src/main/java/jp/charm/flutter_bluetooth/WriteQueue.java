@@ -0,0 +1,491 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of outgoing writes for one connection, drained by its own writer thread.
+ *
+ * Writes go into one of two lanes. The control lane is for short, latency sensitive commands
+ * and is always served first. The bulk lane is sent in chunks, and whatever control writes
+ * queue up meanwhile go out between two chunks, so a large transfer no longer holds a status
+ * poll back until it is done. Each lane keeps its own order and capacity.
+ *
+ * Small writes waiting in the same lane are coalesced into a single socket write. Each write is
+ * only completed once the batch holding it has been flushed, or failed with the error the
+ * socket reported. Bulk writes report progress after every chunk, sent straight from their
+ * buffer, which may be a direct ByteBuffer.
+ *
+ * With a rate limit ({@link #setRateLimit}) writes are paced to that many bytes per second
+ * for peers whose receive buffer overflows otherwise. Chunks then shrink to about 50ms worth
+ * of data, so control writes still get in between quickly.
+ *
+ * While the link is down ({@link #suspend()}) writes keep queuing. With replayOnError writes
+ * that failed are kept and sent again first once a new stream is given to {@link #resume}. A bulk
+ * write resumes with the chunk that failed, the chunks flushed before it are not sent twice.
+ */
+class WriteQueue {
+  static final int DEFAULT_CAPACITY = 64;
+  static final int DEFAULT_BATCH_SIZE = 4096;
+
+  static final int CONTROL = 0;
+  static final int BULK = 1;
+
+  // Smallest chunk when pacing, so slow rates don't end up in a write per byte
+  private static final int MIN_PACED_CHUNK = 64;
+
+  interface Callback {
+    /**
+     * Called by the writer thread right before the write first goes to the socket, again when it
+     * is replayed
+     */
+    void onSending();
+
+    /** Called by the writer thread after each chunk of a bulk write larger than a chunk */
+    void onProgress(long sent, long total);
+
+    void onWritten();
+
+    void onError(IOException error);
+  }
+
+  private static class WriteRequest {
+    // Position to limit is what remains to be sent
+    final ByteBuffer data;
+    final int start;
+    final Callback callback;
+    // End of the last chunk that was flushed, what the peer already has
+    int flushed;
+    // Whether onSending was called since the request was queued or rewound
+    boolean sending = false;
+
+    WriteRequest(ByteBuffer data, Callback callback) {
+      this.data = data;
+      this.start = data.position();
+      this.flushed = start;
+      this.callback = callback;
+    }
+
+    int size() {
+      return data.limit() - start;
+    }
+
+    /** Prepares the request for sending again what wasn't flushed, batched writes from the beginning */
+    void rewind() {
+      data.position(flushed);
+      sending = false;
+    }
+
+    void sending() {
+      if (!sending) {
+        sending = true;
+        callback.onSending();
+      }
+    }
+  }
+
+  // Guards the lanes, the link and the rate limit, and wakes the writer on any change
+  private final Object lock = new Object();
+  private final ArrayDeque<WriteRequest> control = new ArrayDeque<>();
+  private final ArrayDeque<WriteRequest> bulk = new ArrayDeque<>();
+  private final int laneCapacity;
+  // Writes of a failed batch waiting for the link to come back, sent ahead of both lanes
+  private final ArrayDeque<WriteRequest> replay = new ArrayDeque<>();
+  private final boolean replayOnError;
+  private final int batchSize;
+  private final byte[] batch;
+  private final Thread writer;
+  // Bytes, completed writes and write latency are recorded here, may be null
+  private final ConnectionStats stats;
+  // Captures what is written, may be null
+  private final WireTrace trace;
+  // Stream of the current link, null while it is down
+  private OutputStream outputStream;
+  private volatile boolean closed = false;
+
+  // Bulk write being sent chunk by chunk, only changed by the writer thread
+  private volatile WriteRequest current;
+
+  // Pacing, 0 bytes per second for none. The budget may go negative after a write, the next
+  // one then waits until it has been paid back
+  private long bytesPerSecond = 0;
+  private double budget;
+  private long refilledAt;
+
+  WriteQueue(String name, OutputStream outputStream) {
+    this(name, outputStream, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, false, null, null);
+  }
+
+  /** @param capacity writes each lane holds */
+  WriteQueue(String name, OutputStream outputStream, int capacity, int batchSize, boolean replayOnError,
+             ConnectionStats stats, WireTrace trace) {
+    this.outputStream = outputStream;
+    this.stats = stats;
+    this.trace = trace;
+    this.laneCapacity = Math.max(1, capacity);
+    this.replayOnError = replayOnError;
+    this.batchSize = batchSize;
+    this.batch = new byte[batchSize];
+    this.writer = new Thread(this::drain, name);
+  }
+
+  void start() {
+    writer.start();
+  }
+
+  /**
+   * Lane of the 'priority' argument of a write, 'control' or 'bulk', by default chosen by its
+   * size as {@link #offer(ByteBuffer, Callback)} does with the default batch size
+   */
+  static int lane(Object priority, int size) {
+    if ("control".equals(priority)) {
+      return CONTROL;
+    }
+    if ("bulk".equals(priority)) {
+      return BULK;
+    }
+    return size < DEFAULT_BATCH_SIZE ? CONTROL : BULK;
+  }
+
+  /**
+   * Queues data for writing, returns false when the lane is full or the queue closed.
+   * Writes smaller than a batch go into the control lane, larger ones into the bulk lane.
+   */
+  boolean offer(byte[] data, Callback callback) {
+    return offer(ByteBuffer.wrap(data), callback);
+  }
+
+  boolean offer(ByteBuffer data, Callback callback) {
+    return offer(data, data.remaining() < batchSize ? CONTROL : BULK, callback);
+  }
+
+  /**
+   * Queues the remaining bytes of a buffer into a lane, returns false when the lane is full or
+   * the queue closed. The buffer must not be touched until the callback completes.
+   */
+  boolean offer(ByteBuffer data, int lane, Callback callback) {
+    int depth;
+    synchronized (lock) {
+      ArrayDeque<WriteRequest> queue = lane == CONTROL ? control : bulk;
+      if (closed || queue.size() >= laneCapacity) {
+        return false;
+      }
+      queue.add(new WriteRequest(data, callback));
+      depth = control.size() + bulk.size();
+      lock.notifyAll();
+    }
+    if (stats != null) {
+      stats.queued(depth);
+    }
+    return true;
+  }
+
+  /** Number of writes waiting to be sent */
+  int depth() {
+    synchronized (lock) {
+      return control.size() + bulk.size();
+    }
+  }
+
+  /** Number of writes waiting in one lane */
+  int depth(int lane) {
+    synchronized (lock) {
+      return lane == CONTROL ? control.size() : bulk.size();
+    }
+  }
+
+  /** True while bulk writes are being sent or wait to be */
+  boolean bulkActive() {
+    if (current != null) {
+      return true;
+    }
+    synchronized (lock) {
+      return !bulk.isEmpty();
+    }
+  }
+
+  /** Writes both lanes hold together */
+  int capacity() {
+    return laneCapacity * 2;
+  }
+
+  /** Paces writes to at most the given bytes per second, 0 for as fast as the link takes them */
+  void setRateLimit(long bytesPerSecond) {
+    synchronized (lock) {
+      this.bytesPerSecond = Math.max(0, bytesPerSecond);
+      this.budget = chunkSize();
+      this.refilledAt = System.nanoTime();
+      lock.notifyAll();
+    }
+  }
+
+  long rateLimit() {
+    synchronized (lock) {
+      return bytesPerSecond;
+    }
+  }
+
+  /** Holds writes back until {@link #resume} provides the stream of a new link */
+  void suspend() {
+    synchronized (lock) {
+      outputStream = null;
+    }
+  }
+
+  void resume(OutputStream outputStream) {
+    synchronized (lock) {
+      this.outputStream = outputStream;
+      lock.notifyAll();
+    }
+  }
+
+  /** Stops the writer and fails every write still waiting */
+  void close() {
+    List<WriteRequest> remaining = new ArrayList<>();
+    synchronized (lock) {
+      closed = true;
+      remaining.addAll(control);
+      remaining.addAll(bulk);
+      control.clear();
+      bulk.clear();
+      lock.notifyAll();
+    }
+    writer.interrupt();
+
+    fail(remaining, new IOException("connection closed"));
+  }
+
+  /** Largest single write, smaller while pacing so control writes don't wait long */
+  private int chunkSize() {
+    if (bytesPerSecond == 0) {
+      return batchSize;
+    }
+    return (int) Math.max(MIN_PACED_CHUNK, Math.min(batchSize, bytesPerSecond / 20));
+  }
+
+  /** Nanoseconds until the budget allows the next write, 0 when it may go now */
+  private long pacingDelay() {
+    if (bytesPerSecond == 0) {
+      return 0;
+    }
+
+    long now = System.nanoTime();
+    budget = Math.min(chunkSize(), budget + (now - refilledAt) * bytesPerSecond / 1e9);
+    refilledAt = now;
+    return budget >= 0 ? 0 : (long) (-budget * 1e9 / bytesPerSecond);
+  }
+
+  private boolean hasWork() {
+    return !replay.isEmpty() || !control.isEmpty() || current != null || !bulk.isEmpty();
+  }
+
+  /**
+   * Takes the next batch into requests, replayed writes first, then the control lane, then the
+   * bulk lane. Returns a bulk write to send one chunk of instead, or null when batched.
+   */
+  private WriteRequest next(List<WriteRequest> requests, int chunkSize) {
+    ArrayDeque<WriteRequest> queue;
+    if (!replay.isEmpty()) {
+      queue = replay;
+    } else if (!control.isEmpty()) {
+      queue = control;
+    } else if (current != null) {
+      return current;
+    } else {
+      queue = bulk;
+    }
+
+    WriteRequest first = queue.poll();
+    if (queue == bulk && first.size() >= chunkSize) {
+      current = first;
+      return current;
+    }
+
+    // Coalesce the small writes that queued up behind it, a single large control write is
+    // sent whole
+    requests.add(first);
+    int length = first.size();
+    WriteRequest next;
+    while ((next = queue.peek()) != null && length + next.size() <= chunkSize) {
+      requests.add(queue.poll());
+      length += next.size();
+    }
+    return null;
+  }
+
+  private void drain() {
+    List<WriteRequest> requests = new ArrayList<>();
+    OutputStream out = null;
+
+    while (true) {
+      WriteRequest chunked;
+      int chunkSize;
+      synchronized (lock) {
+        try {
+          while (!closed && (outputStream == null || !hasWork())) {
+            lock.wait();
+          }
+          if (closed) {
+            break;
+          }
+
+          // A control write queued while waiting is picked first once the budget allows
+          long delay = pacingDelay();
+          if (delay > 0) {
+            lock.wait(Math.max(1, delay / 1_000_000));
+            continue;
+          }
+        } catch (InterruptedException e) {
+          break;
+        }
+
+        out = outputStream;
+        chunkSize = chunkSize();
+        chunked = next(requests, chunkSize);
+      }
+
+      int written;
+      try {
+        if (chunked != null) {
+          written = writeChunk(out, chunked, chunkSize);
+        } else {
+          written = writeBatch(out, requests);
+        }
+        out.flush();
+      } catch (IOException e) {
+        if (replayOnError && !closed) {
+          // Keep the writes in order ahead of anything else and wait for a new link
+          for (int i = requests.size() - 1; i >= 0; i--) {
+            requests.get(i).rewind();
+            replay.addFirst(requests.get(i));
+          }
+          if (chunked != null) {
+            chunked.rewind();
+          }
+          synchronized (lock) {
+            if (outputStream == out) {
+              outputStream = null;
+            }
+          }
+        } else {
+          fail(requests, e);
+          if (chunked != null) {
+            current = null;
+            chunked.callback.onError(e);
+          }
+        }
+        requests.clear();
+        continue;
+      }
+
+      synchronized (lock) {
+        if (bytesPerSecond > 0) {
+          budget -= written;
+        }
+      }
+
+      if (chunked != null) {
+        chunked.flushed = chunked.data.position();
+        chunked.callback.onProgress(chunked.size() - chunked.data.remaining(), chunked.size());
+        if (!chunked.data.hasRemaining()) {
+          current = null;
+          if (stats != null) {
+            stats.framesOut.incrementAndGet();
+          }
+          chunked.callback.onWritten();
+        }
+      } else {
+        if (stats != null) {
+          stats.framesOut.addAndGet(requests.size());
+        }
+        for (WriteRequest request : requests) {
+          request.callback.onWritten();
+        }
+      }
+
+      requests.clear();
+    }
+
+    IOException closedError = new IOException("connection closed");
+    fail(new ArrayList<>(replay), closedError);
+    replay.clear();
+    if (current != null) {
+      current.callback.onError(closedError);
+      current = null;
+    }
+  }
+
+  /** Sends the next chunk of a bulk write, returns the bytes written */
+  private int writeChunk(OutputStream out, WriteRequest request, int chunkSize) throws IOException {
+    ByteBuffer data = request.data;
+    request.sending();
+    int length = Math.min(chunkSize, data.remaining());
+
+    if (data.hasArray()) {
+      // Heap buffers are written straight from their array
+      write(out, data.array(), data.arrayOffset() + data.position(), length);
+      data.position(data.position() + length);
+    } else {
+      data.get(batch, 0, length);
+      write(out, batch, 0, length);
+    }
+    return length;
+  }
+
+  /** Sends coalesced writes in one go, or a single write larger than a batch from its buffer */
+  private int writeBatch(OutputStream out, List<WriteRequest> requests) throws IOException {
+    for (WriteRequest request : requests) {
+      request.sending();
+    }
+    WriteRequest first = requests.get(0);
+    if (first.size() > batchSize) {
+      ByteBuffer data = first.data;
+      int length = data.remaining();
+      if (data.hasArray()) {
+        write(out, data.array(), data.arrayOffset() + data.position(), length);
+        data.position(data.limit());
+      } else {
+        while (data.hasRemaining()) {
+          int part = Math.min(batchSize, data.remaining());
+          data.get(batch, 0, part);
+          write(out, batch, 0, part);
+        }
+      }
+      return length;
+    }
+
+    int length = 0;
+    for (WriteRequest request : requests) {
+      int size = request.size();
+      request.data.get(batch, length, size);
+      length += size;
+    }
+    write(out, batch, 0, length);
+    return length;
+  }
+
+  private void write(OutputStream out, byte[] data, int offset, int length) throws IOException {
+    if (trace != null) {
+      trace.record(WireTrace.OUT, data, offset, length);
+    }
+    if (stats == null) {
+      out.write(data, offset, length);
+      return;
+    }
+
+    long start = System.nanoTime();
+    out.write(data, offset, length);
+    stats.writeLatency.recordNanos(System.nanoTime() - start);
+    stats.bytesOut.addAndGet(length);
+  }
+
+  private static void fail(List<WriteRequest> requests, IOException error) {
+    for (WriteRequest request : requests) {
+      request.callback.onError(error);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** The device cache file of protocol/PROTOCOL.md "Device cache" */
+public class DeviceCacheConformanceTest {
+  private static final String A = "00:11:22:33:44:55";
+  private static final String B = "AA:BB:CC:DD:EE:FF";
+  private static final String SPP = "00001101-0000-1000-8000-00805f9b34fb";
+  private static final long NOW = 1_700_000_000_000L;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void cacheRoundTrip() throws Exception {
+    File file = folder.newFile();
+    DeviceCache cache = new DeviceCache(file);
+    List<Device> devices = Arrays.asList(
+            new Device("printer", A, 1, true, true, -60, NOW, SPP, 3, Arrays.asList(SPP)),
+            new Device(null, B, 2, false, false, Device.RSSI_UNKNOWN, NOW - 1000, null, 0, null));
+    cache.save(devices, NOW);
+
+    List<Device> loaded = cache.load(NOW);
+    assertEquals(2, loaded.size());
+    // Nothing is connected right after loading
+    assertTrue(loaded.get(0).sameAs(devices.get(0).withConnected(false)));
+    assertTrue(loaded.get(1).sameAs(devices.get(1)));
+    assertEquals(NOW, loaded.get(0).lastSeen);
+  }
+
+  @Test
+  public void cacheLayout() throws Exception {
+    File file = folder.newFile();
+    new DeviceCache(file).save(Collections.singletonList(
+            new Device("p", A, 1, true, false, -60, NOW, SPP, 3, Collections.<String>emptyList())), NOW);
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      assertEquals(0x46424443, in.readInt());
+      assertEquals(2, in.readUnsignedByte());
+      assertEquals(1, in.readInt());
+      assertEquals(0x001122334455L, in.readLong());
+      assertTrue(in.readBoolean());
+      assertEquals("p", in.readUTF());
+      assertEquals(1, in.readUnsignedByte());
+      assertTrue(in.readBoolean());
+      assertEquals(-60, in.readShort());
+      assertEquals(NOW, in.readLong());
+      assertTrue(in.readBoolean());
+      assertEquals(0x0000110100001000L, in.readLong());
+      assertEquals(0x800000805f9b34fbL, in.readLong());
+      assertEquals(3, in.readUnsignedByte());
+      assertEquals(0, in.readShort());
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void versionOneCacheStillLoads() throws Exception {
+    File file = folder.newFile();
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(0x46424443);
+      out.writeByte(1);
+      out.writeInt(1);
+      out.writeLong(0x001122334455L);
+      out.writeBoolean(false);
+      out.writeByte(1);
+      out.writeBoolean(true);
+      out.writeShort(Device.RSSI_UNKNOWN);
+      out.writeLong(NOW);
+      out.writeBoolean(false);
+    }
+
+    List<Device> loaded = new DeviceCache(file).load(NOW);
+    assertEquals(1, loaded.size());
+    Device device = loaded.get(0);
+    assertEquals(A, device.address);
+    assertNull(device.name);
+    assertTrue(device.bonded);
+    assertEquals(0, device.channel);
+    assertNull(device.uuids);
+  }
+
+  @Test
+  public void expiredDevicesAreNotCached() throws Exception {
+    DeviceCache cache = new DeviceCache(folder.newFile());
+    cache.save(Arrays.asList(
+            new Device("old", A, 1, false, false, -60, NOW - DeviceCache.DEFAULT_TTL - 1),
+            new Device("bonded", B, 1, true, false, -60, NOW - DeviceCache.DEFAULT_TTL - 1)), NOW);
+
+    List<Device> loaded = cache.load(NOW);
+    assertEquals(1, loaded.size());
+    assertEquals(B, loaded.get(0).address);
+  }
+
+  @Test
+  public void missingFileLoadsNothing() throws Exception {
+    assertTrue(new DeviceCache(new File(folder.getRoot(), "none")).load(NOW).isEmpty());
+  }
+
+  @Test
+  public void otherMagicOrNewerVersionIsIgnored() throws Exception {
+    for (int[] header : new int[][]{{0x12345678, 2}, {0x46424443, 3}, {0x46424443, 0}}) {
+      File file = folder.newFile();
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+        out.writeInt(header[0]);
+        out.writeByte(header[1]);
+        out.writeInt(1);
+        out.writeLong(0x001122334455L);
+      }
+      assertTrue(new DeviceCache(file).load(NOW).isEmpty());
+    }
+  }
+
+  @Test
+  public void truncatedFileKeepsTheCompleteRecords() throws Exception {
+    File file = folder.newFile();
+    new DeviceCache(file).save(Arrays.asList(
+            new Device("a", A, 1, false, false, -60, NOW),
+            new Device("b", B, 1, false, false, -60, NOW)), NOW);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    List<Device> loaded = new DeviceCache(file).load(NOW);
+    assertEquals(1, loaded.size());
+    assertEquals(A, loaded.get(0).address);
+  }
+
+  @Test
+  public void saveReplacesTheFileAndLeavesNoTemporary() throws Exception {
+    File file = folder.newFile();
+    DeviceCache cache = new DeviceCache(file);
+    cache.save(Collections.singletonList(new Device("a", A, 1, false, false, -60, NOW)), NOW);
+    cache.save(Collections.singletonList(new Device("b", B, 1, false, false, -60, NOW)), NOW);
+
+    List<Device> loaded = cache.load(NOW);
+    assertEquals(1, loaded.size());
+    assertEquals(B, loaded.get(0).address);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    cache.delete();
+    assertTrue(cache.load(NOW).isEmpty());
+  }
+
+  @Test
+  public void ttlAppliesOnLoad() throws Exception {
+    File file = folder.newFile();
+    DeviceCache cache = new DeviceCache(file);
+    cache.save(Collections.singletonList(new Device("a", A, 1, false, false, -60, NOW - 60_000)), NOW);
+
+    assertEquals(1, cache.load(NOW).size());
+    cache.setTtl(30_000);
+    assertEquals(NOW - 30_000, cache.cutoff(NOW));
+    assertTrue(cache.load(NOW).isEmpty());
+  }
+}
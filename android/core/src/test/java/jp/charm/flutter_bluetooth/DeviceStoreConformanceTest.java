@@ -0,0 +1,116 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** The device merge rules and list versions of protocol/PROTOCOL.md "Devices" */
+public class DeviceStoreConformanceTest {
+  private static final String A = "00:11:22:33:44:55";
+  private static final String B = "AA:BB:CC:DD:EE:FF";
+  private static final String SPP = "00001101-0000-1000-8000-00805f9b34fb";
+  private static final long NOW = 1_700_000_000_000L;
+
+  private final List<String> changes = new ArrayList<>();
+
+  private final DeviceStore store = new DeviceStore(new DeviceStore.Listener() {
+    @Override
+    public void added(Device device) {
+      changes.add("added " + device.address);
+    }
+
+    @Override
+    public void changed(Device device) {
+      changes.add("changed " + device.address);
+    }
+
+    @Override
+    public void removed(String address) {
+      changes.add("removed " + address);
+    }
+  });
+
+  @Test
+  public void updatesKeepWhatTheyDoNotCarry() {
+    store.put(new Device("printer", A, 1, true, false, -60, NOW, SPP, 3, Collections.singletonList(SPP)));
+    store.put(new Device(null, A, 1, true, false, Device.RSSI_UNKNOWN, NOW - 1000));
+
+    Device device = store.get(A);
+    assertEquals("printer", device.name);
+    assertEquals(-60, device.rssi);
+    assertEquals(NOW, device.lastSeen);
+    assertEquals(SPP, device.service);
+    assertEquals(3, device.channel);
+    assertEquals(Collections.singletonList(SPP), device.uuids);
+  }
+
+  @Test
+  public void channelIsOnlyTakenWithItsService() {
+    store.put(new Device("printer", A, 1, true, false, -60, NOW, SPP, 3, null));
+    store.put(new Device("printer", A, 1, true, false, -60, NOW, null, 5, null));
+    assertEquals(3, store.get(A).channel);
+
+    String other = "00001234-0000-1000-8000-00805f9b34fb";
+    store.put(new Device("printer", A, 1, true, false, -60, NOW, other, 0, null));
+    assertEquals(other, store.get(A).service);
+    assertEquals(0, store.get(A).channel);
+  }
+
+  @Test
+  public void lastSeenAloneIsNotAChange() {
+    store.put(new Device("printer", A, 1, false, false, -60, NOW));
+    long version = store.version();
+    store.put(new Device("printer", A, 1, false, false, -60, NOW + 1000));
+
+    assertEquals(version, store.version());
+    assertEquals(NOW + 1000, store.get(A).lastSeen);
+    assertEquals(Collections.singletonList("added " + A), changes);
+  }
+
+  @Test
+  public void sinceReportsChangesAndRemovals() {
+    store.put(new Device("a", A, 1, false, false));
+    long version = store.version();
+    store.put(new Device("b", B, 1, false, false));
+    store.remove(A);
+
+    DeviceStore.Delta delta = store.since(version);
+    assertFalse(delta.full);
+    assertEquals(store.version(), delta.version);
+    assertEquals(1, delta.devices.size());
+    assertEquals(B, delta.devices.get(0).address);
+    assertEquals(Collections.singletonList(A), delta.removed);
+
+    assertTrue(store.since(0).full);
+    assertTrue(store.since(store.version() + 1).full);
+    assertTrue(store.since(store.version()).devices.isEmpty());
+  }
+
+  @Test
+  public void sinceBeforeTheKeptRemovalsIsFull() {
+    for (int i = 0; i <= DeviceStore.MAX_TOMBSTONES; i++) {
+      String address = Device.unpackAddress(i);
+      store.put(new Device(null, address, 1, false, false));
+      store.remove(address);
+    }
+    assertTrue(store.since(1).full);
+  }
+
+  @Test
+  public void snapshotIsSortedByAddress() {
+    store.put(new Device("b", B, 1, false, false));
+    store.put(new Device("a", A, 1, false, false));
+
+    List<Device> snapshot = store.snapshot();
+    assertEquals(A, snapshot.get(0).address);
+    assertEquals(B, snapshot.get(1).address);
+    assertSame(snapshot, store.snapshot());
+  }
+}
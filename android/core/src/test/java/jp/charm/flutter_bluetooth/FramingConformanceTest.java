@@ -0,0 +1,56 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Runs protocol/conformance/framing.txt across a loopback link */
+@RunWith(Parameterized.class)
+public class FramingConformanceTest {
+  @Parameterized.Parameters(name = "{0}")
+  public static List<Object[]> cases() throws IOException {
+    List<Object[]> cases = new ArrayList<>();
+    for (Vectors.Case vector : Vectors.load("framing.txt")) {
+      cases.add(new Object[]{vector});
+    }
+    return cases;
+  }
+
+  private final Vectors.Case vector;
+
+  public FramingConformanceTest(Vectors.Case vector) {
+    this.vector = vector;
+  }
+
+  @Test
+  public void asReceived() throws Exception {
+    check(vector.in);
+  }
+
+  @Test
+  public void byteByByte() throws Exception {
+    List<byte[]> bytes = new ArrayList<>();
+    for (byte[] burst : vector.in) {
+      for (byte b : burst) {
+        bytes.add(new byte[]{b});
+      }
+    }
+    check(bytes);
+  }
+
+  private void check(List<byte[]> bursts) throws Exception {
+    ReceiveBuffer received = Loopback.transfer(FrameDecoder.fromArguments(vector.framing), bursts);
+
+    for (int i = 0; i < vector.reads.size(); i++) {
+      assertArrayEquals("read " + (i + 1), vector.reads.get(i), received.readMessage());
+    }
+    assertEquals("left buffered", 0, received.size());
+  }
+}
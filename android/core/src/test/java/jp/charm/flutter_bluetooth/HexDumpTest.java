@@ -0,0 +1,72 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/** The table driven dump against the String.format version it replaced */
+public class HexDumpTest {
+  @Test
+  public void everyByteFormatsAsBefore() {
+    byte[] all = new byte[256];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = (byte) i;
+    }
+    assertEquals(reference(all), HexDump.format(all));
+  }
+
+  @Test
+  public void randomDataFormatsAsBefore() {
+    Random random = new Random(16);
+    for (int i = 0; i < 100; i++) {
+      byte[] data = new byte[random.nextInt(300)];
+      random.nextBytes(data);
+      assertEquals(reference(data), HexDump.format(data));
+    }
+  }
+
+  @Test
+  public void formatsARangeIntoABuffer() {
+    byte[] data = {0x02, 'A', 0x1B, (byte) 0xFF, 0x03};
+    int length = HexDump.length(data, 1, 3);
+    assertEquals("A<ESCAPE>FF".length(), length);
+
+    char[] out = new char[2 + 3 * HexDump.MAX_TOKEN_LENGTH];
+    out[0] = '[';
+    int end = HexDump.format(data, 1, 3, out, 1);
+    assertEquals(1 + length, end);
+    assertEquals("[A<ESCAPE>FF", new String(out, 0, end));
+  }
+
+  private static String reference(byte[] a) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : a) {
+      switch (b) {
+        case 0x02:
+          sb.append("<STX>");
+          break;
+        case 0x03:
+          sb.append("<ETX>");
+          break;
+        case 0x1B:
+          sb.append("<ESCAPE>");
+          break;
+        case 0x05:
+          sb.append("<ENQ>");
+          break;
+        case 0x06:
+          sb.append("<ACQ>");
+          break;
+        default:
+          if (b > 47 && b < 123) {
+            sb.append(String.format("%c", b));
+          } else {
+            sb.append(String.format("%02X", b));
+          }
+      }
+    }
+    return sb.toString();
+  }
+}
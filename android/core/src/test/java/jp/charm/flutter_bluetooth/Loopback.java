@@ -0,0 +1,138 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A link made of a pipe: what the write queue sends comes out of the read loop on the other end,
+ * as it would between the plugin and a peer echoing nothing back.
+ */
+class Loopback {
+  private static final int PIPE_SIZE = 64 * 1024;
+
+  /**
+   * Sends each burst as its own write, waits until all are flushed and closes the link, then
+   * reads everything into the receive buffer the way a connection does
+   */
+  static ReceiveBuffer transfer(FrameDecoder decoder, List<byte[]> bursts) throws Exception {
+    PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+    final PipedOutputStream out = new PipedOutputStream(in);
+    final ReceiveBuffer received = new ReceiveBuffer(ReceiveBuffer.Options.DEFAULT, decoder != null, null);
+
+    WriteQueue queue = new WriteQueue("loopback-write", out);
+    queue.start();
+    final CountDownLatch written = new CountDownLatch(bursts.size());
+    final List<IOException> errors = new ArrayList<>();
+    for (byte[] burst : bursts) {
+      if (!queue.offer(burst, new Callback(written, errors))) {
+        throw new IllegalStateException("write queue full");
+      }
+    }
+
+    // The pipe holds everything, so the writer finishes before anything is read
+    if (!written.await(5, TimeUnit.SECONDS) || !errors.isEmpty()) {
+      throw new IllegalStateException("writes did not complete: " + errors);
+    }
+    out.close();
+    queue.close();
+
+    new ReadLoop(in, decoder, null, null).run(new ReadLoop.Listener() {
+      @Override
+      public void onData(ReadEngine engine) {
+        write(received, engine.array(), engine.length());
+      }
+
+      @Override
+      public void onFrame(byte[] frame) {
+        write(received, frame, frame.length);
+      }
+    });
+    return received;
+  }
+
+  private static void write(ReceiveBuffer received, byte[] data, int length) {
+    try {
+      received.write(data, 0, length);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Counts completed writes down and collects the errors of failed ones */
+  static class Callback implements WriteQueue.Callback {
+    private final CountDownLatch done;
+    private final List<IOException> errors;
+
+    Callback(CountDownLatch done, List<IOException> errors) {
+      this.done = done;
+      this.errors = errors;
+    }
+
+    @Override
+    public void onSending() {
+    }
+
+    @Override
+    public void onProgress(long sent, long total) {
+    }
+
+    @Override
+    public void onWritten() {
+      done.countDown();
+    }
+
+    @Override
+    public void onError(IOException error) {
+      synchronized (errors) {
+        errors.add(error);
+      }
+      done.countDown();
+    }
+  }
+
+  /** Records every write call separately, optionally holding the first one until released */
+  static class RecordingOutputStream extends OutputStream {
+    final List<byte[]> writes = new ArrayList<>();
+    final CountDownLatch firstWrite = new CountDownLatch(1);
+    private final CountDownLatch gate;
+
+    /** @param gate released to let the first write return, null to never hold it */
+    RecordingOutputStream(CountDownLatch gate) {
+      this.gate = gate;
+    }
+
+    @Override
+    public void write(int b) {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      byte[] copy = new byte[len];
+      System.arraycopy(b, off, copy, 0, len);
+      synchronized (this) {
+        writes.add(copy);
+      }
+      if (firstWrite.getCount() > 0) {
+        firstWrite.countDown();
+        try {
+          if (gate != null) {
+            gate.await();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    synchronized List<byte[]> writes() {
+      return new ArrayList<>(writes);
+    }
+  }
+}
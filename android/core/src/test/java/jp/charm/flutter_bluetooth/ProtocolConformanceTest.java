@@ -0,0 +1,146 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the names and versions each platform's sources use against {@link Protocol}, and the
+ * bulk channel's byte format as the Dart side produces it
+ */
+public class ProtocolConformanceTest {
+  private static final String PLUGIN = "android/src/main/java/jp/charm/flutter_bluetooth/";
+
+  @Test
+  public void androidImplementsEveryMethod() throws IOException {
+    String source = read(PLUGIN + "FlutterBluetoothPlugin.java");
+    String handler = source.substring(source.indexOf("public void onMethodCall("), source.indexOf("result.notImplemented();"));
+
+    assertEquals(new TreeSet<>(Protocol.METHODS), matches(handler, "case \"(\\w+)\":"));
+  }
+
+  @Test
+  public void androidSendsOnlyKnownEvents() throws IOException {
+    Set<String> events = new TreeSet<>();
+    for (String name : new String[]{"FlutterBluetoothPlugin.java", "DeviceUpdateCoalescer.java"}) {
+      String source = read(PLUGIN + name);
+      events.addAll(matches(source, "put\\(\"event\", \"(\\w+)\"\\)"));
+      events.addAll(matches(source, "Event\\(\"(\\w+)\""));
+    }
+
+    assertEquals(new TreeSet<>(Protocol.EVENTS), events);
+  }
+
+  @Test
+  public void dartSpeaksTheSameContract() throws IOException {
+    String source = read("lib/flutter_bluetooth.dart");
+
+    assertEquals(Collections.singleton(Protocol.VERSION), versions(source, "PROTOCOL_VERSION = (\\d+);"));
+    Set<String> invoked = matches(source, "invokeMethod(?:<[^>]*>)?\\('(\\w+)'");
+    invoked.removeAll(Protocol.METHODS);
+    assertTrue("not in the contract: " + invoked, invoked.isEmpty());
+    for (String channel : Arrays.asList(Protocol.METHOD_CHANNEL, Protocol.EVENT_CHANNEL, Protocol.DATA_CHANNEL, Protocol.BULK_CHANNEL)) {
+      assertTrue(channel, source.contains("'" + channel + "'"));
+    }
+  }
+
+  @Test
+  public void windowsSpeaksTheSameContract() throws IOException {
+    String header = read("windows/protocol.h");
+    String plugin = read("windows/flutter_bluetooth_plugin.cpp");
+
+    assertEquals(Collections.singleton(Protocol.VERSION), versions(header, "kProtocolVersion = (\\d+);"));
+    assertEquals(Collections.singleton(Protocol.METHOD_CHANNEL), matches(header, "kMethodChannel\\[\\] = \"([^\"]+)\""));
+    assertEquals(Collections.singleton(Protocol.EVENT_CHANNEL), matches(header, "kEventChannel\\[\\] = \"([^\"]+)\""));
+    assertEquals(Collections.singleton(Protocol.DATA_CHANNEL), matches(header, "kDataChannel\\[\\] = \"([^\"]+)\""));
+    assertEquals(Collections.singleton(Protocol.BULK_CHANNEL), matches(header, "kBulkChannel\\[\\] = \"([^\"]+)\""));
+
+    // Every method it reports is in the contract and handled
+    String list = header.substring(header.indexOf("kMethods[]"));
+    Set<String> methods = matches(list.substring(0, list.indexOf("};")), "\"(\\w+)\"");
+    assertTrue(Protocol.METHODS.containsAll(methods));
+    assertEquals(methods, matches(plugin, "compare\\(\"(\\w+)\"\\) == 0"));
+  }
+
+  @Test
+  public void bulkMessageAsDartEncodesIt() {
+    byte[] address = "00:11:22:33:44:55".getBytes(Charset.forName("US-ASCII"));
+    ByteBuffer message = ByteBuffer.allocate(6 + address.length + 3);
+    message.put((byte) 0x48).putInt(0x7fffffff).put((byte) address.length).put(address);
+    message.put(new byte[]{1, 2, 3});
+    message.flip();
+
+    BulkHeader header = BulkHeader.parse(message);
+    assertEquals(0x7fffffff, header.transferId);
+    assertEquals("00:11:22:33:44:55", header.address);
+    // Left at the payload
+    assertEquals(3, message.remaining());
+    assertEquals(1, message.get());
+
+    ByteBuffer empty = ByteBuffer.wrap(new byte[]{0x48, 0, 0, 0, 1, 0});
+    BulkHeader any = BulkHeader.parse(empty);
+    assertEquals(1, any.transferId);
+    assertEquals("", any.address);
+    assertEquals(0, empty.remaining());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void payloadIsNotAHeader() {
+    BulkHeader.parse(ByteBuffer.wrap(new byte[]{0x00, 0, 0, 0, 1, 0}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void truncatedHeaderIsRejected() {
+    BulkHeader.parse(ByteBuffer.wrap(new byte[]{0x48, 0, 0, 0, 1, 5, 'A'}));
+  }
+
+  @Test
+  public void bulkReplies() {
+    ByteBuffer ok = BulkHeader.reply(null);
+    assertEquals(1, ok.position());
+    assertEquals(0, ok.get(0));
+
+    ByteBuffer failed = BulkHeader.reply("not connected");
+    byte[] text = new byte[failed.position() - 1];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = failed.get(1 + i);
+    }
+    assertEquals(1, failed.get(0));
+    assertEquals("not connected", new String(text, Charset.forName("UTF-8")));
+  }
+
+  private static String read(String path) throws IOException {
+    return new String(Files.readAllBytes(new File(Vectors.repository(), path).toPath()), Charset.forName("UTF-8"));
+  }
+
+  private static Set<String> matches(String source, String regex) {
+    Set<String> found = new TreeSet<>();
+    Matcher matcher = Pattern.compile(regex).matcher(source);
+    while (matcher.find()) {
+      found.add(matcher.group(1));
+    }
+    return found;
+  }
+
+  private static Set<Integer> versions(String source, String regex) {
+    Set<Integer> found = new HashSet<>();
+    for (String version : matches(source, regex)) {
+      found.add(Integer.parseInt(version));
+    }
+    return found;
+  }
+}
@@ -0,0 +1,154 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** The receive buffer of protocol/PROTOCOL.md "Reading" */
+public class ReceiveBufferConformanceTest {
+  // Four 5 byte frames fit with their 4 byte headers
+  private static final int CAPACITY = 36;
+
+  private final List<String> marks = new ArrayList<>();
+
+  private final ReceiveBuffer.Listener listener = new ReceiveBuffer.Listener() {
+    @Override
+    public void onHighWater(int size) {
+      marks.add("high " + size);
+    }
+
+    @Override
+    public void onLowWater(int size) {
+      marks.add("low " + size);
+    }
+  };
+
+  @Test
+  public void optionsDefaultToQuartersOfTheCapacity() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("capacity", 1000);
+    ReceiveBuffer.Options options = ReceiveBuffer.Options.fromArguments(arguments);
+
+    assertEquals(1000, options.capacity);
+    assertEquals(ReceiveBuffer.DROP_OLDEST, options.overflow);
+    assertEquals(750, options.highWater);
+    assertEquals(250, options.lowWater);
+    assertEquals(ReceiveBuffer.DEFAULT_CAPACITY, ReceiveBuffer.Options.fromArguments(null).capacity);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownOverflowPolicyIsRejected() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("overflow", "grow");
+    ReceiveBuffer.Options.fromArguments(arguments);
+  }
+
+  @Test
+  public void dropOldestDropsWholeFrames() throws Exception {
+    ReceiveBuffer buffer = framed(ReceiveBuffer.DROP_OLDEST);
+    for (int i = 1; i <= 5; i++) {
+      assertTrue(buffer.write(frame(i), 0, 5));
+    }
+
+    assertEquals(5, buffer.dropped());
+    for (int i = 2; i <= 5; i++) {
+      assertArrayEquals(frame(i), buffer.readMessage());
+    }
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void dropOldestKeepsTheNewestUnframedBytes() throws Exception {
+    ReceiveBuffer buffer = new ReceiveBuffer(new ReceiveBuffer.Options(8, ReceiveBuffer.DROP_OLDEST, 8, 0), false, null);
+    buffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+    buffer.write(new byte[]{7, 8, 9, 10}, 0, 4);
+
+    assertEquals(2, buffer.dropped());
+    assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8, 9, 10}, buffer.drain().get(0));
+  }
+
+  @Test
+  public void failRefusesWhatDoesNotFit() throws Exception {
+    ReceiveBuffer buffer = framed(ReceiveBuffer.FAIL);
+    for (int i = 1; i <= 4; i++) {
+      assertTrue(buffer.write(frame(i), 0, 5));
+    }
+    assertFalse(buffer.write(frame(5), 0, 5));
+    assertEquals(0, buffer.dropped());
+  }
+
+  @Test
+  public void blockWaitsForRoom() throws Exception {
+    final ReceiveBuffer buffer = framed(ReceiveBuffer.BLOCK);
+    for (int i = 1; i <= 4; i++) {
+      buffer.write(frame(i), 0, 5);
+    }
+
+    final CountDownLatch written = new CountDownLatch(1);
+    Thread reader = new Thread(() -> {
+      try {
+        buffer.write(frame(5), 0, 5);
+        written.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    reader.start();
+
+    assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+    assertArrayEquals(frame(1), buffer.readMessage());
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertEquals(4, buffer.read(Integer.MAX_VALUE).size());
+  }
+
+  @Test
+  public void waterMarksAreReportedOncePerCrossing() throws Exception {
+    ReceiveBuffer buffer = new ReceiveBuffer(new ReceiveBuffer.Options(100, ReceiveBuffer.BLOCK, 60, 20), false, listener);
+    buffer.write(new byte[50], 0, 50);
+    buffer.write(new byte[20], 0, 20);
+    buffer.write(new byte[10], 0, 10);
+    buffer.read(40);
+    buffer.read(30);
+    buffer.write(new byte[5], 0, 5);
+
+    List<String> expected = new ArrayList<>();
+    expected.add("high 70");
+    expected.add("low 10");
+    assertEquals(expected, marks);
+  }
+
+  @Test
+  public void readBufferedReturnsAtLeastOneFrame() throws Exception {
+    ReceiveBuffer buffer = framed(ReceiveBuffer.DROP_OLDEST);
+    buffer.write(frame(1), 0, 5);
+    buffer.write(frame(2), 0, 5);
+    buffer.write(frame(3), 0, 5);
+
+    assertEquals(1, buffer.read(1).size());
+    assertEquals(2, buffer.read(10).size());
+    assertTrue(buffer.read(10).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void readBufferedRejectsNoBytes() {
+    framed(ReceiveBuffer.DROP_OLDEST).read(0);
+  }
+
+  private ReceiveBuffer framed(int overflow) {
+    return new ReceiveBuffer(new ReceiveBuffer.Options(CAPACITY, overflow, CAPACITY, 0), true, null);
+  }
+
+  private static byte[] frame(int value) {
+    return new byte[]{(byte) value, (byte) value, (byte) value, (byte) value, (byte) value};
+  }
+}
@@ -0,0 +1,64 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** The retry schedule of the connect argument 'reconnect' */
+public class ReconnectPolicyTest {
+  @Test
+  public void backoffDoublesUpToTheMaximum() {
+    ReconnectPolicy policy = new ReconnectPolicy(100, 1000, 0);
+    long[] backoffs = {100, 200, 400, 800, 1000, 1000};
+    for (int attempt = 0; attempt < backoffs.length; attempt++) {
+      for (int i = 0; i < 100; i++) {
+        long delay = policy.delay(attempt);
+        // Half fixed, half random
+        assertTrue(attempt + ": " + delay, delay >= backoffs[attempt] / 2 && delay <= backoffs[attempt]);
+      }
+    }
+  }
+
+  @Test
+  public void largeDelaysDoNotOverflow() {
+    ReconnectPolicy policy = new ReconnectPolicy(1L << 40, Long.MAX_VALUE, 0);
+    for (int attempt : new int[]{0, 22, 23, 30, 64, Integer.MAX_VALUE}) {
+      assertTrue(policy.delay(attempt) >= 1L << 39);
+    }
+  }
+
+  @Test
+  public void attemptsAreUnlimitedByDefault() {
+    assertFalse(new ReconnectPolicy(100, 1000, 0).exhausted(1_000_000));
+
+    ReconnectPolicy three = new ReconnectPolicy(100, 1000, 3);
+    assertFalse(three.exhausted(2));
+    assertTrue(three.exhausted(3));
+  }
+
+  @Test
+  public void fromArguments() {
+    ReconnectPolicy defaults = ReconnectPolicy.fromArguments(true);
+    assertEquals(ReconnectPolicy.DEFAULT_INITIAL_DELAY, defaults.initialDelay);
+    assertEquals(ReconnectPolicy.DEFAULT_MAX_DELAY, defaults.maxDelay);
+    assertEquals(0, defaults.maxAttempts);
+    assertNull(ReconnectPolicy.fromArguments(false));
+    assertNull(ReconnectPolicy.fromArguments(null));
+
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("initialDelay", 2000);
+    arguments.put("maxDelay", 1000);
+    arguments.put("maxAttempts", 5);
+    ReconnectPolicy policy = ReconnectPolicy.fromArguments(arguments);
+    assertEquals(2000, policy.initialDelay);
+    // Never below the initial delay
+    assertEquals(2000, policy.maxDelay);
+    assertEquals(5, policy.maxAttempts);
+  }
+}
@@ -0,0 +1,362 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The duty cycle of 'startScanSchedule' against a fake radio and a fake clock */
+public class ScanSchedulerTest {
+  private static final String A = "00:11:22:33:44:55";
+  private static final String B = "AA:BB:CC:DD:EE:FF";
+
+  private final FakeClock clock = new FakeClock();
+  private final List<String> log = new ArrayList<>();
+  private boolean busy = false;
+
+  private final ScanScheduler.Radio radio = new ScanScheduler.Radio() {
+    @Override
+    public void startScan() {
+      log.add("start");
+    }
+
+    @Override
+    public void stopScan() {
+      log.add("stop");
+    }
+
+    @Override
+    public boolean busy() {
+      return busy;
+    }
+  };
+
+  private final ScanScheduler scheduler = new ScanScheduler(clock, radio, new ScanScheduler.Listener() {
+    @Override
+    public void onState(String state) {
+      log.add(state);
+    }
+
+    @Override
+    public void onFinished(String reason, int found) {
+      log.add(reason + " " + found);
+    }
+  });
+
+  @Test
+  public void scansForTheWindowOfEachInterval() {
+    scheduler.start(options(100, 300, 0, 0));
+    assertEquals(Arrays.asList("start", "scanning"), take());
+
+    clock.advance(99);
+    assertTrue(take().isEmpty());
+    clock.advance(1);
+    assertEquals(Arrays.asList("stop", "waiting"), take());
+    clock.advance(200);
+    assertEquals(Arrays.asList("start", "scanning"), take());
+  }
+
+  @Test
+  public void fullWindowRestartsTheScan() {
+    scheduler.start(options(100, 100, 0, 0));
+    take();
+
+    clock.advance(100);
+    assertEquals(Arrays.asList("stop", "start"), take());
+    assertEquals(ScanScheduler.SCANNING, scheduler.state());
+  }
+
+  @Test
+  public void yieldsToABusyRadioAndResumes() {
+    scheduler.start(options(1000, 3000, 0, 0));
+    take();
+
+    // A connect starts and asks for the radio right away
+    busy = true;
+    scheduler.checkBusy();
+    assertEquals(Arrays.asList("stop", "paused"), take());
+
+    // The window's end passes while paused
+    clock.advance(2000);
+    assertTrue(take().isEmpty());
+
+    busy = false;
+    clock.advance(ScanScheduler.BUSY_CHECK);
+    assertEquals(Arrays.asList("start", "scanning"), take());
+    // A new full window follows
+    clock.advance(999);
+    assertTrue(take().isEmpty());
+    clock.advance(1);
+    assertEquals(Arrays.asList("stop", "waiting"), take());
+  }
+
+  @Test
+  public void periodicCheckPausesWithoutBeingAsked() {
+    scheduler.start(options(1000, 3000, 0, 0));
+    take();
+
+    busy = true;
+    clock.advance(ScanScheduler.BUSY_CHECK);
+    assertEquals(Arrays.asList("stop", "paused"), take());
+  }
+
+  @Test
+  public void startingWhileBusyWaitsForTheRadio() {
+    busy = true;
+    scheduler.start(options(100, 300, 0, 0));
+    assertEquals(Collections.singletonList("paused"), take());
+
+    busy = false;
+    clock.advance(ScanScheduler.BUSY_CHECK);
+    assertEquals(Arrays.asList("start", "scanning"), take());
+  }
+
+  @Test
+  public void endsOnceAllTargetsAreFound() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("targets", Arrays.asList(A.toLowerCase(), B));
+    scheduler.start(ScanScheduler.Options.fromArguments(arguments));
+    take();
+
+    scheduler.found(A);
+    scheduler.found("01:02:03:04:05:06");
+    assertEquals(ScanScheduler.SCANNING, scheduler.state());
+    scheduler.found(B.toLowerCase());
+    assertEquals(Arrays.asList("stop", "idle", "targetsFound 3"), take());
+
+    // Nothing of the finished schedule fires later
+    clock.advance(ScanScheduler.DEFAULT_DURATION);
+    assertTrue(take().isEmpty());
+  }
+
+  @Test
+  public void endsWithEnoughDevices() {
+    scheduler.start(options(100, 300, 0, 2));
+    take();
+
+    scheduler.found(A);
+    scheduler.found(A.toLowerCase());
+    assertEquals(ScanScheduler.SCANNING, scheduler.state());
+    scheduler.found(B);
+    assertEquals(Arrays.asList("stop", "idle", "minDevices 2"), take());
+  }
+
+  @Test
+  public void endsAfterTheDuration() {
+    scheduler.start(options(100, 300, 1000, 0));
+    clock.advance(999);
+    take();
+
+    clock.advance(1);
+    assertEquals(Arrays.asList("stop", "idle", "timeout 0"), take());
+    assertEquals(ScanScheduler.IDLE, scheduler.state());
+  }
+
+  @Test
+  public void startReplacesTheRunningSchedule() {
+    scheduler.start(options(100, 300, 500, 0));
+    clock.advance(100);
+    take();
+
+    scheduler.start(options(1000, 3000, 0, 0));
+    assertEquals(Arrays.asList("idle", "stopped 0", "start", "scanning"), take());
+
+    // The old schedule's window and deadline don't touch the new one
+    clock.advance(999);
+    assertTrue(take().isEmpty());
+  }
+
+  @Test
+  public void stopEndsTheSchedule() {
+    scheduler.start(options(100, 300, 0, 0));
+    take();
+
+    scheduler.stop();
+    assertEquals(Arrays.asList("stop", "idle", "stopped 0"), take());
+    scheduler.stop();
+    assertTrue(take().isEmpty());
+  }
+
+  @Test
+  public void optionsKeepTheWindowWithinTheInterval() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("window", 5000);
+    arguments.put("interval", 1000);
+    ScanScheduler.Options options = ScanScheduler.Options.fromArguments(arguments);
+    assertEquals(5000, options.window);
+    assertEquals(5000, options.interval);
+    assertEquals(ScanScheduler.DEFAULT_DURATION, options.duration);
+
+    ScanScheduler.Options defaults = ScanScheduler.Options.fromArguments(null);
+    assertEquals(ScanScheduler.DEFAULT_WINDOW, defaults.window);
+    assertTrue(defaults.targets.isEmpty());
+  }
+
+  private static ScanScheduler.Options options(long window, long interval, long duration, int minDevices) {
+    return new ScanScheduler.Options(window, interval, duration, new HashSet<String>(), minDevices);
+  }
+
+  /** What happened since the last call */
+  private List<String> take() {
+    List<String> taken = new ArrayList<>(log);
+    log.clear();
+    return taken;
+  }
+
+  /** Runs scheduled tasks on the calling thread as time is advanced */
+  private static class FakeClock extends AbstractExecutorService implements ScheduledExecutorService {
+    private final List<Task> tasks = new ArrayList<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    void advance(long millis) {
+      long until = now + millis;
+      while (true) {
+        Task next = null;
+        for (Task task : tasks) {
+          if (!task.cancelled && task.at <= until && (next == null || task.compareTo(next) < 0)) {
+            next = task;
+          }
+        }
+        if (next == null) {
+          break;
+        }
+        now = next.at;
+        if (next.delay > 0) {
+          next.at = now + next.delay;
+          next.order = sequence++;
+        } else {
+          tasks.remove(next);
+          next.done = true;
+        }
+        next.runnable.run();
+      }
+      now = until;
+      tasks.removeIf(task -> task.cancelled);
+    }
+
+    private Task add(Runnable runnable, long delay, long period, TimeUnit unit) {
+      Task task = new Task(runnable, now + unit.toMillis(delay), unit.toMillis(period), sequence++);
+      tasks.add(task);
+      return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return add(command, delay, 0, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+      return add(command, initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+      return add(command, initialDelay, delay, unit);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+
+    private class Task implements ScheduledFuture<Object> {
+      final Runnable runnable;
+      // Repeats after this many milliseconds, 0 for once
+      final long delay;
+      long at;
+      long order;
+      boolean cancelled = false;
+      boolean done = false;
+
+      Task(Runnable runnable, long at, long delay, long order) {
+        this.runnable = runnable;
+        this.at = at;
+        this.delay = delay;
+        this.order = order;
+      }
+
+      @Override
+      public long getDelay(TimeUnit unit) {
+        return unit.convert(at - now, TimeUnit.MILLISECONDS);
+      }
+
+      @Override
+      public int compareTo(Delayed other) {
+        Task task = (Task) other;
+        return at != task.at ? Long.compare(at, task.at) : Long.compare(order, task.order);
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean wasPending = !cancelled && !done;
+        cancelled = true;
+        return wasPending;
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return cancelled;
+      }
+
+      @Override
+      public boolean isDone() {
+        return cancelled || done;
+      }
+
+      @Override
+      public Object get() {
+        return null;
+      }
+
+      @Override
+      public Object get(long timeout, TimeUnit unit) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** The transact call and its matchers of protocol/PROTOCOL.md "Writing" */
+public class TransactionsConformanceTest {
+  private final Transactions transactions = new Transactions(Transactions.DEFAULT_MAX_PENDING);
+  private final List<String> outcomes = new ArrayList<>();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private WriteQueue queue;
+
+  @After
+  public void tearDown() {
+    if (queue != null) {
+      queue.close();
+    }
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void staleFrameWhileTheRequestIsQueuedIsNotItsReply() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(gate);
+    queue = new WriteQueue("conformance-write", out);
+    queue.start();
+
+    // A plain write holds the link while the request waits behind it
+    List<IOException> errors = new ArrayList<>();
+    CountDownLatch written = new CountDownLatch(2);
+    assertTrue(queue.offer(ByteBuffer.wrap(new byte[]{1}), WriteQueue.CONTROL, new Loopback.Callback(written, errors)));
+    assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+
+    final Transactions.Transaction transaction = add(new byte[]{2}, ReplyMatcher.ANY);
+    assertTrue(queue.offer(ByteBuffer.wrap(transaction.request), WriteQueue.CONTROL, new Loopback.Callback(written, errors) {
+      @Override
+      public void onSending() {
+        transactions.arm(transaction);
+      }
+    }));
+
+    // The reply to the plain write arrives before the request went out
+    assertFalse(transactions.complete(new byte[]{'r', 1}));
+    gate.countDown();
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+
+    assertTrue(transactions.complete(new byte[]{'r', 2}));
+    assertEquals(Collections.singletonList("reply r2"), outcomes);
+    assertTrue(errors.isEmpty());
+  }
+
+  @Test
+  public void repliesAreMatchedOldestFirst() {
+    ReplyMatcher echo = matcher("echo", "offset", 0, "length", 1, "replyOffset", 1);
+    arm(add(new byte[]{1}, echo));
+    arm(add(new byte[]{2}, echo));
+    arm(add(new byte[]{3}, ReplyMatcher.ANY));
+
+    assertTrue(transactions.complete(new byte[]{'r', 2}));
+    assertTrue(transactions.complete(new byte[]{'r', 9}));
+    assertTrue(transactions.complete(new byte[]{'r', 1}));
+    assertFalse(transactions.complete(new byte[]{'r', 1}));
+    assertTrue(transactions.isEmpty());
+    assertEquals(Arrays.asList("reply r2", "reply r9", "reply r1"), outcomes);
+  }
+
+  @Test
+  public void unmatchedFramesArePassedOn() {
+    arm(add(new byte[]{1}, matcher("prefix", "bytes", new byte[]{'O', 'K'})));
+
+    assertFalse(transactions.complete(new byte[]{'N', 'G'}));
+    assertFalse(transactions.isEmpty());
+    assertTrue(transactions.complete(new byte[]{'O', 'K', '!'}));
+  }
+
+  @Test
+  public void timeoutFailsTheTransaction() throws Exception {
+    final Transactions.Transaction transaction = add(new byte[]{1}, ReplyMatcher.ANY);
+    arm(transaction);
+    final CountDownLatch failed = new CountDownLatch(1);
+    transactions.setTimeout(transaction, scheduler.schedule(() -> {
+      transactions.fail(transaction, "transact_timeout", "no reply");
+      failed.countDown();
+    }, 10, TimeUnit.MILLISECONDS));
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+    assertEquals(Collections.singletonList("error transact_timeout"), outcomes);
+    assertFalse(transactions.complete(new byte[]{'r'}));
+  }
+
+  @Test
+  public void replyCancelsTheTimeout() {
+    Transactions.Transaction transaction = add(new byte[]{1}, ReplyMatcher.ANY);
+    arm(transaction);
+    Future<?> timeout = scheduler.schedule(
+            () -> transactions.fail(transaction, "transact_timeout", "no reply"), 1, TimeUnit.HOURS);
+    transactions.setTimeout(transaction, timeout);
+
+    assertTrue(transactions.complete(new byte[]{'r'}));
+    assertTrue(timeout.isCancelled());
+    transactions.fail(transaction, "write_error", "late");
+    assertEquals(Collections.singletonList("reply r"), outcomes);
+  }
+
+  @Test
+  public void disconnectFailsEveryTransaction() {
+    arm(add(new byte[]{1}, ReplyMatcher.ANY));
+    add(new byte[]{2}, ReplyMatcher.ANY);
+
+    transactions.failAll("connection_closed", "closed");
+    assertTrue(transactions.isEmpty());
+    assertEquals(Arrays.asList("error connection_closed", "error connection_closed"), outcomes);
+  }
+
+  @Test
+  public void atMostMaxPendingAreInFlight() {
+    Transactions small = new Transactions(1);
+    assertTrue(small.add(new byte[]{1}, ReplyMatcher.ANY, callback()) != null);
+    assertNull(small.add(new byte[]{2}, ReplyMatcher.ANY, callback()));
+  }
+
+  @Test
+  public void matchers() {
+    byte[] request = {0x10, 0x20, 0x30};
+    assertTrue(ReplyMatcher.fromArguments(null).matches(request, new byte[0]));
+
+    ReplyMatcher prefix = matcher("prefix", "bytes", Arrays.asList(0x20, 0x30), "offset", 1);
+    assertTrue(prefix.matches(request, new byte[]{0, 0x20, 0x30, 0}));
+    assertFalse(prefix.matches(request, new byte[]{0x20, 0x30}));
+
+    ReplyMatcher equals = matcher("equals", "bytes", new byte[]{6});
+    assertTrue(equals.matches(request, new byte[]{6}));
+    assertFalse(equals.matches(request, new byte[]{6, 6}));
+
+    ReplyMatcher echo = matcher("echo", "offset", 1, "length", 2);
+    assertTrue(echo.matches(request, new byte[]{0, 0x20, 0x30}));
+    assertFalse(echo.matches(request, new byte[]{0x20, 0x30}));
+
+    Map<String, Object> anyOf = new HashMap<>();
+    anyOf.put("type", "anyOf");
+    anyOf.put("matchers", Arrays.<Object>asList(arguments("equals", "bytes", new byte[]{6}),
+            arguments("equals", "bytes", new byte[]{0x15})));
+    ReplyMatcher ackOrNak = ReplyMatcher.fromArguments(anyOf);
+    assertTrue(ackOrNak.matches(request, new byte[]{0x15}));
+    assertFalse(ackOrNak.matches(request, new byte[]{0x16}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownMatcherIsRejected() {
+    matcher("regex");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void matcherThatIsNotAMapIsRejected() {
+    ReplyMatcher.fromArguments("any");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void anyOfWithoutAListIsRejected() {
+    matcher("anyOf", "matchers", "equals");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void prefixWithoutBytesIsRejected() {
+    matcher("prefix", "bytes", new byte[0]);
+  }
+
+  private Transactions.Transaction add(byte[] request, ReplyMatcher matcher) {
+    return transactions.add(request, matcher, callback());
+  }
+
+  private void arm(Transactions.Transaction transaction) {
+    transactions.arm(transaction);
+  }
+
+  private Transactions.Callback callback() {
+    return new Transactions.Callback() {
+      @Override
+      public void onReply(byte[] reply) {
+        synchronized (outcomes) {
+          outcomes.add("reply " + (char) reply[0] + (reply.length > 1 ? String.valueOf(reply[1]) : ""));
+        }
+      }
+
+      @Override
+      public void onError(String code, String message) {
+        synchronized (outcomes) {
+          outcomes.add("error " + code);
+        }
+      }
+    };
+  }
+
+  private static ReplyMatcher matcher(String type, Object... keysAndValues) {
+    return ReplyMatcher.fromArguments(arguments(type, keysAndValues));
+  }
+
+  private static Map<String, Object> arguments(String type, Object... keysAndValues) {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("type", type);
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      arguments.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return arguments;
+  }
+}
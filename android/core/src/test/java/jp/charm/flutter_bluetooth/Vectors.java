@@ -0,0 +1,110 @@
+package jp.charm.flutter_bluetooth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Reads the shared conformance vectors in protocol/conformance, see protocol/PROTOCOL.md */
+class Vectors {
+  static class Case {
+    final String name;
+    // The 'framing' argument, null for unframed
+    Map<String, Object> framing;
+    final List<byte[]> in = new ArrayList<>();
+    final List<byte[]> reads = new ArrayList<>();
+
+    Case(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  static File repository() {
+    return new File(System.getProperty("repository.dir", "../.."));
+  }
+
+  static List<Case> load(String name) throws IOException {
+    File file = new File(repository(), "protocol/conformance/" + name);
+    List<Case> cases = new ArrayList<>();
+    Case current = null;
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+
+        int space = line.indexOf(' ');
+        String keyword = space < 0 ? line : line.substring(0, space);
+        String rest = space < 0 ? "" : line.substring(space + 1).trim();
+        if (keyword.equals("case")) {
+          current = new Case(rest);
+        } else if (current == null) {
+          throw new IOException(name + ":" + number + ": '" + keyword + "' outside a case");
+        } else if (keyword.equals("framing")) {
+          current.framing = arguments(rest);
+        } else if (keyword.equals("in")) {
+          current.in.add(hex(rest));
+        } else if (keyword.equals("read")) {
+          current.reads.add(hex(rest));
+        } else if (keyword.equals("end")) {
+          cases.add(current);
+          current = null;
+        } else {
+          throw new IOException(name + ":" + number + ": unknown keyword '" + keyword + "'");
+        }
+      }
+    }
+    return cases;
+  }
+
+  /** Space separated hex bytes */
+  static byte[] hex(String text) {
+    String digits = text.replace(" ", "");
+    byte[] bytes = new byte[digits.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+  private static Map<String, Object> arguments(String text) {
+    Map<String, Object> arguments = new HashMap<>();
+    for (String pair : text.split(" +")) {
+      int equals = pair.indexOf('=');
+      arguments.put(pair.substring(0, equals), value(pair.substring(equals + 1)));
+    }
+    return arguments;
+  }
+
+  private static Object value(String text) {
+    if (text.equals("true") || text.equals("false")) {
+      return Boolean.valueOf(text);
+    }
+    if (text.startsWith("<") && text.endsWith(">")) {
+      return hex(text.substring(1, text.length() - 1));
+    }
+    if (text.startsWith("0x")) {
+      return Integer.parseInt(text.substring(2), 16);
+    }
+    if (text.matches("-?[0-9]+")) {
+      return Integer.parseInt(text);
+    }
+    return text;
+  }
+}
@@ -0,0 +1,94 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The ring of records behind 'dumpTrace' and its rate limited log */
+public class WireTraceTest {
+  // Header of each record in the ring
+  private static final int HEADER = 13;
+
+  @Test
+  public void dumpsRecordsOldestFirst() {
+    WireTrace trace = new WireTrace("test", 1024);
+    trace.record(WireTrace.OUT, new byte[]{'A', 'B', 0x03}, 0, 3);
+    trace.record(WireTrace.IN, new byte[]{0, 0x06, 0}, 1, 1);
+
+    List<Map<String, Object>> records = trace.dump();
+    assertEquals(2, records.size());
+    assertEquals("out", records.get(0).get("direction"));
+    assertArrayEquals(new byte[]{'A', 'B', 0x03}, (byte[]) records.get(0).get("data"));
+    assertEquals("AB<ETX>", records.get(0).get("text"));
+    assertEquals("in", records.get(1).get("direction"));
+    assertEquals("<ACQ>", records.get(1).get("text"));
+    assertTrue((Long) records.get(0).get("time") > 0);
+  }
+
+  @Test
+  public void wrapDropsWholeOldestRecords() {
+    // Room for two 10 byte records, the third wraps around the end of the ring
+    WireTrace trace = new WireTrace("test", 2 * (HEADER + 10) + 5);
+    for (int i = 1; i <= 5; i++) {
+      trace.record(WireTrace.IN, bytes(10, i), 0, 10);
+
+      List<Map<String, Object>> records = trace.dump();
+      assertEquals(Math.min(i, 2), records.size());
+      assertArrayEquals(bytes(10, i), (byte[]) records.get(records.size() - 1).get("data"));
+      if (i > 1) {
+        assertArrayEquals(bytes(10, i - 1), (byte[]) records.get(0).get("data"));
+      }
+    }
+  }
+
+  @Test
+  public void recordLargerThanTheRingKeepsItsEnd() {
+    WireTrace trace = new WireTrace("test", HEADER + 4);
+    trace.record(WireTrace.OUT, new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+
+    List<Map<String, Object>> records = trace.dump();
+    assertEquals(1, records.size());
+    assertArrayEquals(new byte[]{3, 4, 5, 6}, (byte[]) records.get(0).get("data"));
+  }
+
+  @Test
+  public void clearEmptiesTheRing() {
+    WireTrace trace = new WireTrace("test", 100);
+    trace.record(WireTrace.OUT, new byte[]{1}, 0, 1);
+    trace.clear();
+    assertTrue(trace.dump().isEmpty());
+
+    trace.record(WireTrace.IN, new byte[]{2}, 0, 1);
+    assertEquals(1, trace.dump().size());
+  }
+
+  @Test
+  public void logIsRateLimitedAndCountsWhatItSkipped() throws Exception {
+    final List<String> lines = new ArrayList<>();
+    WireTrace trace = new WireTrace("dev", 100);
+    trace.setLogger(lines::add, 2);
+    for (int i = 0; i < 5; i++) {
+      trace.record(WireTrace.OUT, new byte[]{'A'}, 0, 1);
+    }
+    assertEquals(2, lines.size());
+    assertEquals("dev >> A", lines.get(0));
+
+    // The next line that gets through once the bucket refilled reports the skipped ones
+    Thread.sleep(600);
+    trace.record(WireTrace.IN, new byte[]{'B'}, 0, 1);
+    assertEquals("dev << B [3 records not logged]", lines.get(2));
+  }
+
+  private static byte[] bytes(int length, int value) {
+    byte[] data = new byte[length];
+    Arrays.fill(data, (byte) value);
+    return data;
+  }
+}
@@ -0,0 +1,254 @@
+package jp.charm.flutter_bluetooth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** The write lanes of protocol/PROTOCOL.md "Writing" */
+public class WriteQueueConformanceTest {
+  private final List<IOException> errors = new ArrayList<>();
+  private WriteQueue queue;
+
+  @After
+  public void tearDown() {
+    if (queue != null) {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void laneFollowsPriorityThenSize() {
+    assertEquals(WriteQueue.CONTROL, WriteQueue.lane(null, 4095));
+    assertEquals(WriteQueue.BULK, WriteQueue.lane(null, 4096));
+    assertEquals(WriteQueue.CONTROL, WriteQueue.lane("control", 100000));
+    assertEquals(WriteQueue.BULK, WriteQueue.lane("bulk", 1));
+  }
+
+  @Test
+  public void controlWritesAreCoalesced() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(gate);
+    start(out, WriteQueue.DEFAULT_CAPACITY);
+
+    CountDownLatch written = new CountDownLatch(11);
+    offer(bytes(1, 1), WriteQueue.CONTROL, written);
+    assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 10; i++) {
+      offer(bytes(10, 2 + i), WriteQueue.CONTROL, written);
+    }
+    gate.countDown();
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    List<byte[]> writes = out.writes();
+    assertEquals(2, writes.size());
+    assertEquals(100, writes.get(1).length);
+  }
+
+  @Test
+  public void controlWritesGoBetweenBulkChunks() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(gate);
+    start(out, WriteQueue.DEFAULT_CAPACITY);
+
+    CountDownLatch written = new CountDownLatch(2);
+    offer(bytes(3 * WriteQueue.DEFAULT_BATCH_SIZE, 1), WriteQueue.BULK, written);
+    assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+    offer(bytes(5, 2), WriteQueue.CONTROL, written);
+    gate.countDown();
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    List<byte[]> writes = out.writes();
+    assertEquals(4, writes.size());
+    assertEquals(WriteQueue.DEFAULT_BATCH_SIZE, writes.get(0).length);
+    assertArrayEquals(bytes(5, 2), writes.get(1));
+    assertEquals(WriteQueue.DEFAULT_BATCH_SIZE, writes.get(2).length);
+    assertEquals(WriteQueue.DEFAULT_BATCH_SIZE, writes.get(3).length);
+  }
+
+  @Test
+  public void eachLaneKeepsItsOrder() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    start(out, WriteQueue.DEFAULT_CAPACITY);
+
+    CountDownLatch written = new CountDownLatch(20);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 20; i++) {
+      byte[] data = bytes(1 + i * 300, i);
+      expected.write(data);
+      offer(data, WriteQueue.BULK, written);
+    }
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertArrayEquals(expected.toByteArray(), out.toByteArray());
+  }
+
+  @Test
+  public void fullLaneRejectsOnlyItsOwnWrites() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(gate);
+    start(out, 2);
+
+    CountDownLatch written = new CountDownLatch(4);
+    offer(bytes(1, 1), WriteQueue.CONTROL, written);
+    assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+    offer(bytes(1, 2), WriteQueue.CONTROL, written);
+    offer(bytes(1, 3), WriteQueue.CONTROL, written);
+    assertFalse(queue.offer(ByteBuffer.wrap(bytes(1, 4)), WriteQueue.CONTROL, new Loopback.Callback(written, errors)));
+    offer(bytes(1, 5), WriteQueue.BULK, written);
+    gate.countDown();
+
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertTrue(errors.isEmpty());
+  }
+
+  @Test
+  public void rateLimitShrinksChunksAndPaces() throws Exception {
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(null);
+    start(out, WriteQueue.DEFAULT_CAPACITY);
+    queue.setRateLimit(20000);
+
+    CountDownLatch written = new CountDownLatch(1);
+    long start = System.nanoTime();
+    offer(bytes(4000, 1), WriteQueue.BULK, written);
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // 1/20 of the rate per chunk. The budget starts at one chunk and may go one chunk into
+    // debt, so the last two chunks wait 50ms each
+    List<byte[]> writes = out.writes();
+    assertEquals(4, writes.size());
+    for (byte[] write : writes) {
+      assertEquals(1000, write.length);
+    }
+    assertTrue("took " + elapsed + "ms", elapsed >= 90);
+  }
+
+  @Test
+  public void failedWritesAreReplayedInOrderOnTheNextLink() throws Exception {
+    final CountDownLatch failed = new CountDownLatch(1);
+    OutputStream broken = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        failed.countDown();
+        throw new IOException("link dropped");
+      }
+    };
+    queue = new WriteQueue("conformance-write", broken, WriteQueue.DEFAULT_CAPACITY, WriteQueue.DEFAULT_BATCH_SIZE, true, null, null);
+    queue.start();
+
+    CountDownLatch written = new CountDownLatch(2);
+    offer(bytes(3, 1), WriteQueue.CONTROL, written);
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+    offer(bytes(3, 2), WriteQueue.CONTROL, written);
+
+    ByteArrayOutputStream next = new ByteArrayOutputStream();
+    queue.resume(next);
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertTrue(errors.isEmpty());
+    byte[] expected = new byte[]{1, 1, 1, 2, 2, 2};
+    assertArrayEquals(expected, next.toByteArray());
+  }
+
+  @Test
+  public void replayedBulkWriteResumesAtTheFailedChunk() throws Exception {
+    final int chunk = WriteQueue.DEFAULT_BATCH_SIZE;
+    final CountDownLatch failed = new CountDownLatch(1);
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    // Takes the first chunk, then the link drops
+    OutputStream dropping = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (first.size() > 0) {
+          failed.countDown();
+          throw new IOException("link dropped");
+        }
+        first.write(b, off, len);
+      }
+    };
+    queue = new WriteQueue("conformance-write", dropping, WriteQueue.DEFAULT_CAPACITY, chunk, true, null, null);
+    queue.start();
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    for (int i = 1; i <= 3; i++) {
+      data.write(bytes(chunk, i));
+    }
+    final List<Long> progress = new ArrayList<>();
+    final CountDownLatch written = new CountDownLatch(1);
+    assertTrue(queue.offer(ByteBuffer.wrap(data.toByteArray()), WriteQueue.BULK, new Loopback.Callback(written, errors) {
+      @Override
+      public void onProgress(long sent, long total) {
+        progress.add(sent);
+      }
+    }));
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+    ByteArrayOutputStream next = new ByteArrayOutputStream();
+    queue.resume(next);
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    assertTrue(errors.isEmpty());
+    assertArrayEquals(bytes(chunk, 1), first.toByteArray());
+    ByteArrayOutputStream rest = new ByteArrayOutputStream();
+    rest.write(bytes(chunk, 2));
+    rest.write(bytes(chunk, 3));
+    assertArrayEquals(rest.toByteArray(), next.toByteArray());
+    assertEquals(Arrays.asList((long) chunk, 2L * chunk, 3L * chunk), progress);
+  }
+
+  @Test
+  public void closeFailsWhatIsLeft() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    Loopback.RecordingOutputStream out = new Loopback.RecordingOutputStream(gate);
+    start(out, WriteQueue.DEFAULT_CAPACITY);
+
+    CountDownLatch done = new CountDownLatch(3);
+    offer(bytes(1, 1), WriteQueue.CONTROL, done);
+    assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+    offer(bytes(1, 2), WriteQueue.CONTROL, done);
+    offer(bytes(1, 3), WriteQueue.BULK, done);
+    queue.close();
+    gate.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(2, errors.size());
+    assertFalse(queue.offer(bytes(1, 4), new Loopback.Callback(done, errors)));
+  }
+
+  private void start(OutputStream out, int capacity) {
+    queue = new WriteQueue("conformance-write", out, capacity, WriteQueue.DEFAULT_BATCH_SIZE, false, null, null);
+    queue.start();
+  }
+
+  private void offer(byte[] data, int lane, CountDownLatch written) {
+    assertTrue(queue.offer(ByteBuffer.wrap(data), lane, new Loopback.Callback(written, errors)));
+  }
+
+  private static byte[] bytes(int length, int value) {
+    byte[] data = new byte[length];
+    Arrays.fill(data, (byte) value);
+    return data;
+  }
+}
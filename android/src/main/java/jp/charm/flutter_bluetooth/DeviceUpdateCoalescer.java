@@ -0,0 +1,143 @@
+package jp.charm.flutter_bluetooth;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+
+/**
+ * Collects device list changes over a short window and sends them to Dart as one event.
+ *
+ * During discovery in a busy environment devices arrive in bursts; instead of one event and a
+ * full list fetch per device, Dart receives a single map holding only the added, changed and
+ * removed devices of the window:
+ * {'event': 'devices', 'added': [...], 'changed': [...], 'removed': [address, ...]}
+ */
+class DeviceUpdateCoalescer implements DeviceStore.Listener {
+  static final long DEFAULT_INTERVAL = 250;
+
+  private static final int ADDED = 0;
+  private static final int CHANGED = 1;
+  private static final int REMOVED = 2;
+
+  private final Handler handler;
+  // Latest state and kind of change per address within the current window
+  private final Map<String, Device> devices = new LinkedHashMap<>();
+  private final Map<String, Integer> kinds = new HashMap<>();
+  private long interval = DEFAULT_INTERVAL;
+  private EventSink sink;
+  private boolean scheduled = false;
+
+  private final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /** @param handler handler of the main looper, events are sent from it */
+  DeviceUpdateCoalescer(Handler handler) {
+    this.handler = handler;
+  }
+
+  synchronized void setSink(EventSink sink) {
+    this.sink = sink;
+    if (sink == null) {
+      devices.clear();
+      kinds.clear();
+    }
+  }
+
+  synchronized void setInterval(long interval) {
+    this.interval = Math.max(0, interval);
+  }
+
+  @Override
+  public void added(Device device) {
+    update(device.address, device, ADDED);
+  }
+
+  @Override
+  public void changed(Device device) {
+    update(device.address, device, CHANGED);
+  }
+
+  @Override
+  public void removed(String address) {
+    update(address, null, REMOVED);
+  }
+
+  private synchronized void update(String address, Device device, int kind) {
+    if (sink == null) {
+      // Nobody listens, Dart fetches the full list when it starts to
+      return;
+    }
+
+    Integer previous = kinds.get(address);
+    if (previous != null) {
+      if (kind == REMOVED && previous == ADDED) {
+        // Came and went within the window
+        devices.remove(address);
+        kinds.remove(address);
+        return;
+      }
+      if (kind == ADDED && previous == REMOVED) {
+        kind = CHANGED;
+      } else if (kind == CHANGED && previous == ADDED) {
+        kind = ADDED;
+      }
+    }
+
+    devices.put(address, device);
+    kinds.put(address, kind);
+
+    if (!scheduled) {
+      scheduled = true;
+      handler.postDelayed(flush, interval);
+    }
+  }
+
+  private void flush() {
+    EventSink target;
+    Map<String, Object> event = new HashMap<>();
+    List<Map<String, Object>> added = new ArrayList<>();
+    List<Map<String, Object>> changed = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+
+    synchronized (this) {
+      scheduled = false;
+      target = sink;
+
+      for (Map.Entry<String, Device> entry : devices.entrySet()) {
+        switch (kinds.get(entry.getKey())) {
+          case ADDED:
+            added.add(entry.getValue().toMap());
+            break;
+          case CHANGED:
+            changed.add(entry.getValue().toMap());
+            break;
+          default:
+            removed.add(entry.getKey());
+        }
+      }
+      devices.clear();
+      kinds.clear();
+    }
+
+    if (target == null || (added.isEmpty() && changed.isEmpty() && removed.isEmpty())) {
+      return;
+    }
+
+    event.put("event", "devices");
+    event.put("added", added);
+    event.put("changed", changed);
+    event.put("removed", removed);
+    // Dart derives the legacy DEVICE_LIST_UPDATED code from it
+    target.success(event);
+  }
+}
@@ -0,0 +1,114 @@
+package jp.charm.flutter_bluetooth;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.flutter.plugin.common.EventChannel.EventSink;
+
+/**
+ * Event sink that can be used from any thread and sends what it collects to Dart once per
+ * frame, as a single list, instead of one platform message per event.
+ *
+ * Flushes are driven by the main thread's Choreographer so events reach Dart in step with the
+ * frames they are shown in. While no frames are drawn, e.g. with the screen off, a short timer
+ * flushes instead.
+ */
+class EventBatcher implements EventSink {
+  // Flush even when no frame comes, a couple of frames at 60 Hz
+  private static final long FALLBACK_DELAY = 32;
+
+  private final Handler handler;
+  private List<Object> pending = new ArrayList<>();
+  private EventSink sink;
+  private boolean scheduled = false;
+
+  private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      flush();
+    }
+  };
+
+  private final Runnable schedule = new Runnable() {
+    @Override
+    public void run() {
+      Choreographer.getInstance().postFrameCallback(frameCallback);
+      handler.postDelayed(fallback, FALLBACK_DELAY);
+    }
+  };
+
+  private final Runnable fallback = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /** @param handler handler of the main looper */
+  EventBatcher(Handler handler) {
+    this.handler = handler;
+  }
+
+  synchronized void setSink(EventSink sink) {
+    this.sink = sink;
+    if (sink == null) {
+      pending.clear();
+    }
+  }
+
+  @Override
+  public synchronized void success(Object event) {
+    if (sink == null) {
+      return;
+    }
+
+    pending.add(event);
+    if (!scheduled) {
+      scheduled = true;
+      handler.post(schedule);
+    }
+  }
+
+  @Override
+  public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        EventSink target;
+        synchronized (EventBatcher.this) {
+          target = sink;
+        }
+        if (target != null) {
+          target.error(errorCode, errorMessage, errorDetails);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void endOfStream() {
+    // The event channel stays open as long as the plugin is attached
+  }
+
+  /** Runs on the main thread from whichever of the frame callback and the timer comes first */
+  private void flush() {
+    Choreographer.getInstance().removeFrameCallback(frameCallback);
+    handler.removeCallbacks(fallback);
+
+    EventSink target;
+    List<Object> batch;
+    synchronized (this) {
+      scheduled = false;
+      target = sink;
+      batch = pending;
+      pending = new ArrayList<>();
+    }
+
+    if (target != null && !batch.isEmpty()) {
+      target.success(batch);
+    }
+  }
+}
@@ -7,40 +7,65 @@ import android.bluetooth.BluetoothAdapter;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.flutter.Log;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
+import io.flutter.plugin.common.MethodCodec;
+import io.flutter.plugin.common.MessageCodec;
+import io.flutter.plugin.common.StandardMethodCodec;
 import io.flutter.plugin.common.EventChannel.StreamHandler;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.Parcelable;
 
 import io.flutter.plugin.common.EventChannel.EventSink;
 import io.flutter.plugin.common.MethodChannel.Result;
@@ -48,22 +73,6 @@ import io.flutter.plugin.common.PluginRegistry;
 
 /** FlutterBluetoothPlugin */
 public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler, StreamHandler, ActivityAware, PluginRegistry.RequestPermissionsResultListener {
-  private static final String ACTION_DEVICE_LIST_UPDATED = "jp.charm.flutter_bluetooth.DEVICE_LIST_UPDATED";
-
-  // Dart-side event definitions
-  private static final int STATE_OFF = 10;
-  private static final int STATE_TURNING_ON = 11;
-  private static final int STATE_ON = 12;
-  private static final int STATE_TURNING_OFF = 13;
-  private static final int STATE_BLE_TURNING_ON = 14;
-  private static final int STATE_BLE_ON = 15;
-  private static final int STATE_BLE_TURNING_OFF = 16;
-  private static final int ERROR = -1;
-  private static final int CONNECTED = 1;
-  private static final int DISCONNECTED = 0;
-  private static final int DISCOVERY_STARTED = 2;
-  private static final int DISCOVERY_FINISHED = 3;
-  private static final int DEVICE_LIST_UPDATED = 20;
   private static final UUID MY_UUID = UUID.fromString("7676b80a-5b43-486c-82bf-e3bc266b2bf0");
   private static final int REQUEST_COARSE_LOCATION_PERMISSIONS = 87657;
   private static final String TAG = "flutter_bluetooth";
@@ -76,28 +85,96 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
   private Activity applicationActivity;
   private BroadcastReceiver bluetoothStatusReceiver;
 
+  private BinaryMessenger messenger;
+  // Whether the method and bulk channels run on a background task queue, see makeTaskQueue()
+  private boolean backgroundChannels = false;
   private MethodChannel methodChannel;
   private EventChannel eventChannel;
+  private EventChannel dataChannel;
+  private BasicMessageChannel<ByteBuffer> bulkChannel;
+  private volatile EventSink dataSink;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
   private BluetoothAdapter mBluetoothAdapter;
-  private BluetoothAdapter.LeScanCallback leScanCallback = null;
-  private static ConnectedThread THREAD = null;
-  private Result pendingResult = null;
-  private  MethodCall pendingMethodCall = null;
-
-  private TreeSet<Device> foundDevices = new TreeSet<Device>(new DeviceCompare());
-
+  private LeScanner leScanner;
+  // Duty-cycled discovery of 'startScanSchedule', and what each of its windows scans
+  private ScanScheduler scanScheduler;
+  private volatile boolean scheduleClassic = true;
+  private volatile Map<String, Object> scheduleLeArguments;
+  // Sink of the event channel, batching events per frame; drops them while Dart isn't listening
+  private final EventBatcher events = new EventBatcher(mainHandler);
+  // Open connections keyed by device address
+  private static final Map<String, ConnectedThread> CONNECTIONS = new ConcurrentHashMap<>();
+  // Connects in progress keyed by device address, so they can be cancelled
+  private static final Map<String, PendingConnect> CONNECTING = new ConcurrentHashMap<>();
+  // Connection whose handler is registered on each 'flutter_bluetooth/data/<address>' channel.
+  // Registering and removing a handler happen under the lock, so a connection going away never
+  // removes the handler of the one that replaced it
+  private static final Map<String, ConnectedThread> DATA_CHANNEL_OWNERS = new HashMap<>();
+
+  // Connect and disconnect run on the plugin's own pool rather than the app-wide AsyncTask
+  // executor, so a hanging connect can't stall unrelated work or other connection attempts
+  private static final int CONNECT_THREADS = 4;
+  private static final ThreadPoolExecutor CONNECT_EXECUTOR = new ThreadPoolExecutor(
+          CONNECT_THREADS, CONNECT_THREADS, 30, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(32), new NamedThreadFactory("connect"));
+  private static final ScheduledExecutorService SCHEDULER =
+          Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("timer"));
+  // Serializes device cache reads and writes
+  private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(new NamedThreadFactory("io"));
+  private static final long CACHE_SAVE_DELAY = 2000;
+  private static final long DEFAULT_TRANSACT_TIMEOUT = 5000;
+  // SDP queries are queued by the stack and take a few seconds each
+  private static final long DEFAULT_UUID_TIMEOUT = 15000;
+
+  static {
+    CONNECT_EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+  private volatile Result pendingResult = null;
+  private volatile MethodCall pendingMethodCall = null;
+
+  private final DeviceUpdateCoalescer deviceUpdates = new DeviceUpdateCoalescer(mainHandler);
+  private final DeviceStore foundDevices = new DeviceStore(deviceUpdates);
+  private DeviceCache deviceCache;
+  private final AtomicBoolean cacheSaveScheduled = new AtomicBoolean(false);
+  // Periodic 'stats' event, null while disabled
+  private ScheduledFuture<?> statsTimer;
+  // Accepts incoming connections while listening as a server, null otherwise
+  private AcceptThread acceptThread;
+  // Lines per second of traffic logged for each connection, 0 while wire logging is off
+  private volatile int wireLogRate = 0;
+  // Outstanding 'fetchUuids' calls. ACTION_UUID broadcasts have their own receiver, registered
+  // while any fetch is outstanding or Dart listens to events, so each is handled once
+  private final List<UuidFetch> uuidFetches = new ArrayList<>();
+  private boolean listeningToEvents = false;
+  private BroadcastReceiver uuidReceiver;
+
+  /**
+   * Lets any thread complete a method call. Calls handled on a task queue may reply from any
+   * thread, so the reply goes out directly; otherwise it has to come from the main thread and is
+   * posted there unless it already is on it.
+   */
   private static class MethodResultWrapper implements Result {
-    private Result methodResult;
-    private Handler handler;
+    private final Result methodResult;
+    private final Handler handler;
+    private final boolean anyThread;
 
-    MethodResultWrapper(Result result) {
+    MethodResultWrapper(Result result, boolean anyThread) {
       methodResult = result;
       handler = new Handler(Looper.getMainLooper());
+      this.anyThread = anyThread;
+    }
+
+    private void reply(Runnable reply) {
+      if (anyThread || Looper.myLooper() == Looper.getMainLooper()) {
+        reply.run();
+      } else {
+        handler.post(reply);
+      }
     }
 
     @Override
     public void success(final Object result) {
-      handler.post(new Runnable() {
+      reply(new Runnable() {
         @Override
         public void run() {
           methodResult.success(result);
@@ -107,7 +184,7 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
 
     @Override
     public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
-      handler.post(new Runnable() {
+      reply(new Runnable() {
         @Override
         public void run() {
           methodResult.error(errorCode, errorMessage, errorDetails);
@@ -117,7 +194,7 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
 
     @Override
     public void notImplemented() {
-      handler.post(new Runnable() {
+      reply(new Runnable() {
         @Override
         public void run() {
           methodResult.notImplemented();
@@ -129,22 +206,195 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
     this.applicationContext = flutterPluginBinding.getApplicationContext();
+    this.messenger = flutterPluginBinding.getBinaryMessenger();
 
     BluetoothManager mBluetoothManager = (BluetoothManager) applicationContext.getSystemService(Context.BLUETOOTH_SERVICE);
     mBluetoothAdapter = mBluetoothManager.getAdapter();
+    if (mBluetoothAdapter != null) {
+      leScanner = new LeScanner(mBluetoothAdapter, createLeScanListener());
+      scanScheduler = new ScanScheduler(SCHEDULER, createScanRadio(), createScanListener());
+    }
 
-    methodChannel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_bluetooth/method");
+    // Known devices are listed right away, without waiting for an inquiry
+    deviceCache = new DeviceCache(new File(applicationContext.getFilesDir(), "flutter_bluetooth_devices.bin"));
+    loadDeviceCache();
+
+    // Method calls and bulk writes are handled off the main thread where the embedding allows it
+    Object taskQueue = makeTaskQueue(messenger);
+    backgroundChannels = taskQueue != null;
+
+    methodChannel = createMethodChannel(messenger, Protocol.METHOD_CHANNEL, taskQueue);
     methodChannel.setMethodCallHandler(this);
 
-    eventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_bluetooth/event");
+    eventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), Protocol.EVENT_CHANNEL);
     eventChannel.setStreamHandler(this);
+
+    // Incoming socket data is pushed to Dart as it arrives instead of being polled with 'read'
+    dataChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), Protocol.DATA_CHANNEL);
+    dataChannel.setStreamHandler(new StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventSink events) {
+        dataSink = events;
+
+        // Flush anything that arrived before Dart started listening
+        for (ConnectedThread connection : CONNECTIONS.values()) {
+          for (byte[] data : connection.drain()) {
+            events.success(data);
+          }
+        }
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        dataSink = null;
+      }
+    });
+
+    // BinaryCodec.INSTANCE copies each message into a heap buffer, which is the only copy made:
+    // the engine buffer is only valid during the handler, the copy is written straight to the socket
+    bulkChannel = createMessageChannel(messenger, Protocol.BULK_CHANNEL, BinaryCodec.INSTANCE, taskQueue);
+    bulkChannel.setMessageHandler(this::onBulkMessage);
+  }
+
+  private static final String TASK_QUEUE_CLASS = "io.flutter.plugin.common.BinaryMessenger$TaskQueue";
+
+  /**
+   * A serial background task queue of the messenger, or null on embeddings before Flutter 2.3
+   * that run every channel handler on the main thread. Looked up reflectively so the plugin
+   * still builds against those.
+   */
+  private static Object makeTaskQueue(BinaryMessenger messenger) {
+    try {
+      return BinaryMessenger.class.getMethod("makeBackgroundTaskQueue").invoke(messenger);
+    } catch (Exception ex) {
+      Log.d(TAG, "no background task queue, channels are handled on the main thread");
+      return null;
+    }
+  }
+
+  private static MethodChannel createMethodChannel(BinaryMessenger messenger, String name, Object taskQueue) {
+    if (taskQueue != null) {
+      try {
+        return MethodChannel.class
+                .getConstructor(BinaryMessenger.class, String.class, MethodCodec.class, Class.forName(TASK_QUEUE_CLASS))
+                .newInstance(messenger, name, StandardMethodCodec.INSTANCE, taskQueue);
+      } catch (Exception ex) {
+        Log.e(TAG, "could not put " + name + " on a task queue", ex);
+      }
+    }
+    return new MethodChannel(messenger, name);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> BasicMessageChannel<T> createMessageChannel(BinaryMessenger messenger, String name,
+                                                                 MessageCodec<T> codec, Object taskQueue) {
+    if (taskQueue != null) {
+      try {
+        return BasicMessageChannel.class
+                .getConstructor(BinaryMessenger.class, String.class, MessageCodec.class, Class.forName(TASK_QUEUE_CLASS))
+                .newInstance(messenger, name, codec, taskQueue);
+      } catch (Exception ex) {
+        Log.e(TAG, "could not put " + name + " on a task queue", ex);
+      }
+    }
+    return new BasicMessageChannel<>(messenger, name, codec);
+  }
+
+  /**
+   * Large payloads arrive on the bulk channel as raw bytes instead of inside an argument map,
+   * so they are never run through the standard codec. Each transfer is one message, a
+   * {@link BulkHeader} followed by the payload. The payload is queued as is, straight from the
+   * message buffer, and streamed to the socket in chunks.
+   */
+  private void onBulkMessage(final ByteBuffer message, final BasicMessageChannel.Reply<ByteBuffer> reply) {
+    if (message == null) {
+      reply.reply(BulkHeader.reply("empty message"));
+      return;
+    }
+
+    final BulkHeader header;
+    try {
+      header = BulkHeader.parse(message);
+    } catch (RuntimeException ex) {
+      reply.reply(BulkHeader.reply("invalid bulk header"));
+      return;
+    }
+
+    ConnectedThread connection;
+    if (header.address.isEmpty()) {
+      connection = CONNECTIONS.size() == 1 ? CONNECTIONS.values().iterator().next() : null;
+    } else {
+      connection = CONNECTIONS.get(header.address);
+    }
+    if (connection == null) {
+      reply.reply(BulkHeader.reply("not connected"));
+      return;
+    }
+
+    final String address = connection.address;
+    // Report roughly every percent, but not more often than every 16 KB
+    final long step = Math.max(16 * 1024, message.remaining() / 100);
+    boolean queued = connection.writeQueue.offer(message, WriteQueue.BULK, new WriteQueue.Callback() {
+      private long reported = 0;
+
+      @Override
+      public void onSending() {
+      }
+
+      @Override
+      public void onProgress(long sent, long total) {
+        if (sent - reported >= step || sent == total) {
+          reported = sent;
+          sendBulkProgress(address, header.transferId, sent, total);
+        }
+      }
+
+      @Override
+      public void onWritten() {
+        deliverReply(reply, BulkHeader.reply(null));
+      }
+
+      @Override
+      public void onError(IOException error) {
+        Log.e(TAG, error.getMessage(), error);
+        deliverReply(reply, BulkHeader.reply(error.getMessage() == null ? "write failed" : error.getMessage()));
+      }
+    });
+
+    if (!queued) {
+      reply.reply(BulkHeader.reply("the write queue is full"));
+    }
+  }
+
+  private void deliverReply(final BasicMessageChannel.Reply<ByteBuffer> reply, final ByteBuffer message) {
+    if (backgroundChannels) {
+      // Replies to task queue handlers may come from any thread
+      reply.reply(message);
+      return;
+    }
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        reply.reply(message);
+      }
+    });
+  }
+
+  private void sendBulkProgress(String address, int transferId, long sent, long total) {
+    Map<String, Object> event = new HashMap<>();
+    event.put("event", "bulkProgress");
+    event.put("address", address);
+    event.put("transferId", transferId);
+    event.put("sent", sent);
+    event.put("total", total);
+    events.success(event);
   }
 
   @Override
   public void onMethodCall(@NonNull MethodCall call, @NonNull Result rawResult) {
-    Result result = new MethodResultWrapper(rawResult);
+    Result result = rawResult instanceof MethodResultWrapper ? rawResult : new MethodResultWrapper(rawResult, backgroundChannels);
 
-    if (mBluetoothAdapter == null && !"isAvailable".equals(call.method)) {
+    if (mBluetoothAdapter == null && !"isAvailable".equals(call.method) && !"getProtocolVersion".equals(call.method)) {
       result.error("bluetooth_unavailable", "the device does not have bluetooth", null);
       return;
     }
@@ -155,6 +405,12 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
       case "getPlatformVersion":
         result.success("Android " + android.os.Build.VERSION.RELEASE);
         break;
+      case "getProtocolVersion":
+        Map<String, Object> protocol = new HashMap<>();
+        protocol.put("version", Protocol.VERSION);
+        protocol.put("methods", Protocol.METHODS);
+        result.success(protocol);
+        break;
       case "isAvailable":
         result.success(mBluetoothAdapter != null);
         break;
@@ -167,7 +423,14 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
         }
         break;
       case "isConnected":
-        result.success(THREAD != null);
+        if (addressArgument(arguments) != null) {
+          result.success(CONNECTIONS.containsKey(addressArgument(arguments)));
+        } else {
+          result.success(!CONNECTIONS.isEmpty());
+        }
+        break;
+      case "getConnections":
+        result.success(new ArrayList<>(CONNECTIONS.keySet()));
         break;
 
       case "openSettings":
@@ -176,16 +439,85 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
         result.success(true);
         break;
       case "connect":
-        if (arguments.containsKey("address") && arguments.containsKey("service")) {
+        if (arguments.containsKey("address") && (arguments.containsKey("service") || cachedService((String) arguments.get("address")) != null)) {
           String address = (String) arguments.get("address");
-          UUID service = UUID.fromString((String) arguments.get("service"));
-          connect(result, address, service);
+          // Without a service, reconnect to the one used last time
+          String serviceArgument = (String) arguments.get("service");
+          UUID service = UUID.fromString(serviceArgument != null ? serviceArgument : cachedService(address));
+          FrameDecoder decoder;
+          ReceiveBuffer.Options receiveBuffer;
+          try {
+            decoder = FrameDecoder.fromArguments(arguments.get("framing"));
+            receiveBuffer = ReceiveBuffer.Options.fromArguments(arguments.get("receiveBuffer"));
+          } catch (IllegalArgumentException | ClassCastException ex) {
+            result.error("invalid_argument", ex.getMessage(), null);
+            break;
+          }
+          Number writeQueueCapacity = (Number) arguments.get("writeQueueCapacity");
+          Number timeout = (Number) arguments.get("timeout");
+          ReconnectPolicy reconnectPolicy = ReconnectPolicy.fromArguments(arguments.get("reconnect"));
+          connect(result, address, service, decoder,
+                  writeQueueCapacity == null ? WriteQueue.DEFAULT_CAPACITY : writeQueueCapacity.intValue(),
+                  timeout == null ? 0 : timeout.longValue(), reconnectPolicy,
+                  Arguments.intArgument(arguments, "traceCapacity", WireTrace.DEFAULT_CAPACITY),
+                  Arguments.longArgument(arguments, "writeRateLimit", 0), receiveBuffer);
+        } else {
+          result.error("invalid_argument", "argument 'address' not found", null);
+        }
+        break;
+      case "listen":
+        try {
+          String serviceArgument = (String) arguments.get("service");
+          listen(result,
+                  arguments.get("name") == null ? TAG : (String) arguments.get("name"),
+                  serviceArgument == null ? MY_UUID : UUID.fromString(serviceArgument),
+                  !Boolean.FALSE.equals(arguments.get("secure")),
+                  Arguments.intArgument(arguments, "maxClients", AcceptThread.DEFAULT_MAX_CLIENTS),
+                  FrameDecoder.fromArguments(arguments.get("framing")),
+                  Arguments.intArgument(arguments, "writeQueueCapacity", WriteQueue.DEFAULT_CAPACITY),
+                  Arguments.intArgument(arguments, "traceCapacity", WireTrace.DEFAULT_CAPACITY),
+                  ReceiveBuffer.Options.fromArguments(arguments.get("receiveBuffer")));
+        } catch (IllegalArgumentException | ClassCastException ex) {
+          result.error("invalid_argument", ex.getMessage(), null);
+        }
+        break;
+      case "stopListening":
+        stopListening();
+        result.success(true);
+        break;
+      case "isListening":
+        result.success(isListening());
+        break;
+      case "fetchUuids":
+        Object addressList = arguments.get("addresses");
+        if (!(addressList instanceof List) || ((List<?>) addressList).isEmpty()) {
+          result.error("invalid_argument", "argument 'addresses' not found", null);
+          break;
+        }
+        List<String> addresses = new ArrayList<>();
+        for (Object address : (List<?>) addressList) {
+          if (!(address instanceof String)) {
+            addresses = null;
+            break;
+          }
+          addresses.add((String) address);
+        }
+        if (addresses == null) {
+          result.error("invalid_argument", "argument 'addresses' must be a list of addresses", null);
+          break;
+        }
+        fetchUuids(result, addresses, Boolean.TRUE.equals(arguments.get("refresh")),
+                Arguments.longArgument(arguments, "timeout", DEFAULT_UUID_TIMEOUT));
+        break;
+      case "cancelConnect":
+        if (addressArgument(arguments) != null) {
+          cancelConnect(result, addressArgument(arguments));
         } else {
           result.error("invalid_argument", "argument 'address' not found", null);
         }
         break;
       case "disconnect":
-        disconnect(result);
+        disconnect(result, addressArgument(arguments));
         break;
       case "discover":
         try {
@@ -205,177 +537,521 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
           result.error("Error", ex.getMessage(), ex);
         }
         break;
+      case "startLeScan":
+        try {
+          if (hasPermissions(call, result)) {
+            leScanner.start(arguments);
+            result.success(true);
+          }
+        } catch (IllegalArgumentException | ClassCastException ex) {
+          result.error("invalid_argument", ex.getMessage(), null);
+        } catch (Exception ex) {
+          result.error("le_scan_error", ex.getMessage(), null);
+        }
+        break;
+      case "stopLeScan":
+        leScanner.stop();
+        result.success(true);
+        break;
+      case "startScanSchedule":
+        try {
+          if (hasPermissions(call, result)) {
+            startScanSchedule(arguments);
+            result.success(true);
+          }
+        } catch (IllegalArgumentException | ClassCastException ex) {
+          result.error("invalid_argument", ex.getMessage(), null);
+        }
+        break;
+      case "stopScanSchedule":
+        scanScheduler.stop();
+        result.success(true);
+        break;
+      case "getScanScheduleState":
+        result.success(scanScheduler.state());
+        break;
       case "getDeviceList":
         List<Map<String, Object>> list = new ArrayList<>();
 
-        for (Device device : foundDevices) {
-          Map<String, Object> ret = new HashMap<>();
-          ret.put("address", device.address);
-          ret.put("name", device.name);
-          ret.put("type", device.type);
-          ret.put("bonded", device.bonded);
-          ret.put("connected", device.connected);
-          list.add(ret);
+        for (Device device : foundDevices.snapshot()) {
+          list.add(device.toMap());
         }
 
         result.success(list);
         break;
+      case "getDeviceListSince":
+        Number version = arguments == null ? null : (Number) arguments.get("version");
+        result.success(foundDevices.since(version == null ? -1 : version.longValue()).toMap());
+        break;
+      case "setDeviceCacheTtl":
+        deviceCache.setTtl(Arguments.longArgument(arguments, "ttl", DeviceCache.DEFAULT_TTL));
+        result.success(true);
+        break;
+      case "clearDeviceCache":
+        foundDevices.clear();
+        IO_EXECUTOR.execute(() -> deviceCache.delete());
+        result.success(true);
+        break;
+      case "setDeviceUpdateInterval":
+        Number interval = arguments == null ? null : (Number) arguments.get("interval");
+        deviceUpdates.setInterval(interval == null ? DeviceUpdateCoalescer.DEFAULT_INTERVAL : interval.longValue());
+        result.success(true);
+        break;
       case "read":
-        read(result);
+        read(result, addressArgument(arguments));
+        break;
+      case "readBuffered":
+        int maxBytes = Arguments.intArgument(arguments, "maxBytes", Integer.MAX_VALUE);
+        if (maxBytes <= 0) {
+          result.error("invalid_argument", "argument 'maxBytes' must be positive", null);
+          break;
+        }
+        ConnectedThread buffered = findConnection(result, addressArgument(arguments), "read_error");
+        if (buffered != null) {
+          result.success(buffered.received.read(maxBytes));
+        }
+        break;
+      case "dumpTrace":
+        ConnectedThread traced = findConnection(result, addressArgument(arguments), "trace_error");
+        if (traced != null) {
+          if (traced.trace == null) {
+            result.error("trace_error", "tracing is off for this connection", null);
+          } else {
+            result.success(traced.trace.dump());
+          }
+        }
+        break;
+      case "setWireLogging":
+        setWireLogging(Boolean.TRUE.equals(arguments.get("enabled"))
+                ? Arguments.intArgument(arguments, "linesPerSecond", 20) : 0);
+        result.success(true);
+        break;
+      case "getStats":
+        getStats(result, addressArgument(arguments));
+        break;
+      case "setStatsInterval":
+        setStatsInterval(Arguments.longArgument(arguments, "interval", 0));
+        result.success(true);
+        break;
+      case "getWriteQueueDepth":
+        ConnectedThread queued = findConnection(result, addressArgument(arguments), "write_error");
+        if (queued != null) {
+          Map<String, Object> depth = new HashMap<>();
+          depth.put("depth", queued.writeQueue.depth());
+          depth.put("capacity", queued.writeQueue.capacity());
+          depth.put("control", queued.writeQueue.depth(WriteQueue.CONTROL));
+          depth.put("bulk", queued.writeQueue.depth(WriteQueue.BULK));
+          result.success(depth);
+        }
+        break;
+      case "setWriteRateLimit":
+        ConnectedThread paced = findConnection(result, addressArgument(arguments), "write_error");
+        if (paced != null) {
+          paced.writeQueue.setRateLimit(Arguments.longArgument(arguments, "bytesPerSecond", 0));
+          result.success(true);
+        }
         break;
       case "write":
-        if (arguments.containsKey("message")) {
-          byte[] message = (byte[]) arguments.get("message");
-          write(result, message);
-        } else {
+        byte[] message = Arguments.bytesArgument(arguments, "message");
+        if (message == null) {
           result.error("invalid_argument", "argument 'message' not found", null);
+          break;
+        }
+        write(result, addressArgument(arguments), message, WriteQueue.lane(arguments.get("priority"), message.length));
+        break;
+      case "transact":
+        byte[] request = Arguments.bytesArgument(arguments, "request");
+        if (request == null) {
+          result.error("invalid_argument", "argument 'request' not found", null);
+          break;
+        }
+        ReplyMatcher matcher;
+        try {
+          matcher = ReplyMatcher.fromArguments(arguments.get("matcher"));
+        } catch (IllegalArgumentException | ClassCastException ex) {
+          result.error("invalid_argument", ex.getMessage(), null);
+          break;
         }
+        transact(result, addressArgument(arguments), request, matcher,
+                Arguments.longArgument(arguments, "timeout", DEFAULT_TRANSACT_TIMEOUT));
         break;
       default:
         result.notImplemented();
     }
   }
 
+  private static String addressArgument(Map<String, Object> arguments) {
+    return arguments == null ? null : (String) arguments.get("address");
+  }
+
+  /**
+   * Finds the connection an address argument refers to. Without an address the only open
+   * connection is used, so single connection apps don't have to pass one.
+   */
+  private ConnectedThread findConnection(Result result, String address, String errorCode) {
+    ConnectedThread connection = null;
+
+    if (address != null) {
+      connection = CONNECTIONS.get(address);
+    } else if (CONNECTIONS.size() == 1) {
+      connection = CONNECTIONS.values().iterator().next();
+    } else if (CONNECTIONS.size() > 1) {
+      result.error(errorCode, "argument 'address' is required with multiple connections", null);
+      return null;
+    }
+
+    if (connection == null) {
+      result.error(errorCode, "not connected", null);
+    }
+    return connection;
+  }
+
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
     methodChannel.setMethodCallHandler(null);
+    dataChannel.setStreamHandler(null);
+    bulkChannel.setMessageHandler(null);
+    if (leScanner != null) {
+      leScanner.stop();
+    }
+    if (scanScheduler != null) {
+      scanScheduler.stop();
+    }
+    setStatsInterval(0);
+    stopListening();
+    List<UuidFetch> fetches;
+    synchronized (uuidFetches) {
+      fetches = new ArrayList<>(uuidFetches);
+    }
+    for (UuidFetch fetch : fetches) {
+      fetch.finish();
+    }
+    IO_EXECUTOR.execute(this::saveDeviceCache);
   }
 
   @Override
-  public void onListen(Object arguments, EventSink events) {
-    bluetoothStatusReceiver = createBluetoothStateReceiver(events);
-
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(BluetoothDevice.ACTION_ACL_CONNECTED));
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(BluetoothDevice.ACTION_ACL_DISCONNECTED));
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_STARTED));
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
+  public void onListen(Object arguments, EventSink sink) {
+    events.setSink(sink);
+    bluetoothStatusReceiver = createBluetoothStateReceiver();
+
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+    filter.addAction(BluetoothAdapter.ACTION_CONNECTION_STATE_CHANGED);
+    filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+    filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+    filter.addAction(BluetoothDevice.ACTION_FOUND);
+    filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+    filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+    filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+    applicationContext.registerReceiver(bluetoothStatusReceiver, filter);
+    synchronized (uuidFetches) {
+      listeningToEvents = true;
+      updateUuidReceiver();
+    }
 
-    applicationContext.registerReceiver(bluetoothStatusReceiver, new IntentFilter(ACTION_DEVICE_LIST_UPDATED));
+    deviceUpdates.setSink(events);
   }
 
   @Override
   public void onCancel(Object arguments) {
+    deviceUpdates.setSink(null);
+    events.setSink(null);
     applicationContext.unregisterReceiver(bluetoothStatusReceiver);
+    synchronized (uuidFetches) {
+      listeningToEvents = false;
+      updateUuidReceiver();
+    }
   }
 
-  private BroadcastReceiver createBluetoothStateReceiver(final EventSink events) {
+  /**
+   * Turns broadcasts into events that carry what changed, so Dart doesn't have to ask:
+   * {'event': type, 'address': ..., 'previous': old state, 'state': new state, 'device': {...}}
+   * Dart derives the legacy int codes of onBluetoothEvent from them.
+   */
+  private BroadcastReceiver createBluetoothStateReceiver() {
     return new BroadcastReceiver() {
       @Override
       public void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
 
         switch (action) {
           case BluetoothDevice.ACTION_FOUND:
-            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-
-            foundDevices.add(new Device(
-                    device.getName(),
-                    device.getAddress(),
-                    device.getType(),
-                    device.getBondState() == BluetoothDevice.BOND_BONDED,
-                    false
-                    ));
-
-            context.sendBroadcast(new Intent(ACTION_DEVICE_LIST_UPDATED));
-            break;
-          case ACTION_DEVICE_LIST_UPDATED:
-            events.success(DEVICE_LIST_UPDATED);
+            addDevice(device, null, intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE), System.currentTimeMillis());
+            scanScheduler.found(device.getAddress());
             break;
           case BluetoothAdapter.ACTION_DISCOVERY_STARTED:
-            events.success(DISCOVERY_STARTED);
+            sendEvent("discoveryStarted", null, -1, -1);
             break;
           case BluetoothAdapter.ACTION_DISCOVERY_FINISHED:
-            events.success(DISCOVERY_FINISHED);
+            scheduleCacheSave();
+            sendEvent("discoveryFinished", null, -1, -1);
             break;
           case BluetoothAdapter.ACTION_STATE_CHANGED:
-            events.success(intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1));
+            sendEvent("adapterState", null, intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, -1),
+                    intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, -1));
             break;
           case BluetoothDevice.ACTION_ACL_CONNECTED:
-            events.success(CONNECTED);
+            sendEvent("aclConnected", device, -1, -1);
             break;
           case BluetoothDevice.ACTION_ACL_DISCONNECTED:
-            THREAD = null;
-            events.success(DISCONNECTED);
+            // The connection's reader notices the drop itself and closes or re-establishes the link
+            if (device != null) {
+              setConnected(device.getAddress(), false);
+            }
+            sendEvent("aclDisconnected", device, -1, -1);
+            break;
           case BluetoothAdapter.ACTION_CONNECTION_STATE_CHANGED:
-            switch (intent.getIntExtra(BluetoothAdapter.EXTRA_CONNECTION_STATE, -1)) {
-              case BluetoothAdapter.STATE_CONNECTED:
-                events.success(CONNECTED);
-                break;
-              case BluetoothAdapter.STATE_DISCONNECTED:
-                THREAD = null;
-                events.success(DISCONNECTED);
-                break;
+            sendEvent("connectionState", device, intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_CONNECTION_STATE, -1),
+                    intent.getIntExtra(BluetoothAdapter.EXTRA_CONNECTION_STATE, -1));
+            break;
+          case BluetoothDevice.ACTION_BOND_STATE_CHANGED:
+            if (device != null) {
+              // Refreshes the bonded flag of the stored device
+              addDevice(device);
             }
+            sendEvent("bondState", device, intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, -1),
+                    intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, -1));
             break;
         }
       }
     };
   }
 
+  /** Sends a state change event, the device and states are left out when null or -1 */
+  private void sendEvent(String type, BluetoothDevice device, int previous, int state) {
+    Map<String, Object> event = new HashMap<>();
+    event.put("event", type);
+    if (device != null) {
+      String address = device.getAddress();
+      event.put("address", address);
+      event.put("connected", CONNECTIONS.containsKey(address));
+      Device known = foundDevices.get(address);
+      if (known != null) {
+        event.put("device", known.toMap());
+      }
+    }
+    if (previous != -1) {
+      event.put("previous", previous);
+    }
+    if (state != -1) {
+      event.put("state", state);
+    }
+    events.success(event);
+  }
+
   // Functions
-  private void connect(Result result, String address, UUID service) {
-    if (THREAD != null) {
+  private void connect(Result result, String address, UUID service, FrameDecoder decoder, int writeQueueCapacity, long timeout,
+                       ReconnectPolicy reconnectPolicy, int traceCapacity, long writeRateLimit,
+                       ReceiveBuffer.Options receiveBuffer) {
+    final long requested = System.nanoTime();
+    if (CONNECTIONS.containsKey(address)) {
       result.error("connect_error", "already connected", null);
       return;
     }
-    AsyncTask.execute(() -> {
-      try {
-        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-
-        if (device == null) {
-          result.error("connect_error", "device not found", null);
-          return;
-        }
 
-        BluetoothSocket socket = device.createRfcommSocketToServiceRecord(service);
+    final PendingConnect pending = new PendingConnect();
+    if (CONNECTING.putIfAbsent(address, pending) != null) {
+      result.error("connect_error", "already connecting", null);
+      return;
+    }
+    // A scheduled scan gives way until the connect is done
+    scanScheduler.checkBusy();
 
-        if (socket == null) {
-          result.error("connect_error", "socket connection not established", null);
-          return;
-        }
+    try {
+      CONNECT_EXECUTOR.execute(() -> {
+        try {
+          BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
 
-        // Cancel bt discovery, even though we didn't start it
-        mBluetoothAdapter.cancelDiscovery();
+          if (device == null) {
+            result.error("connect_error", "device not found", null);
+            return;
+          }
 
-        try {
-          socket.connect();
-          THREAD = new ConnectedThread(socket);
-          THREAD.start();
-
-          // Set the connection status
-          for (Device dev : foundDevices) {
-            if (dev.address.equals(address)) {
-              dev.connected = true;
-              applicationContext.sendBroadcast(new Intent(ACTION_DEVICE_LIST_UPDATED));
+          // BluetoothSocket.connect() has no timeout of its own, closing the socket aborts it
+          ScheduledFuture<?> timer = timeout > 0
+                  ? SCHEDULER.schedule(() -> pending.abort(false), timeout, TimeUnit.MILLISECONDS)
+                  : null;
+
+          // The channel the service was found on last time skips the SDP query
+          int channel = cachedChannel(address, service);
+          BluetoothSocket socket;
+          try {
+            while (true) {
+              socket = channel > 0 ? channelSocket(device, channel) : null;
+              if (socket == null) {
+                channel = 0;
+                socket = device.createRfcommSocketToServiceRecord(service);
+              }
+
+              if (socket == null) {
+                result.error("connect_error", "socket connection not established", null);
+                return;
+              }
+
+              // Cancel bt discovery, even though we didn't start it
+              mBluetoothAdapter.cancelDiscovery();
+
+              if (!pending.attach(socket)) {
+                result.error(pending.cancelled ? "connect_cancelled" : "connect_timeout", "connect was aborted", null);
+                return;
+              }
+
+              try {
+                socket.connect();
+                break;
+              } catch (IOException ex) {
+                if (channel > 0 && !pending.cancelled && !pending.timedOut) {
+                  // The service may have moved, e.g. after the peer restarted, look it up again.
+                  // The channel found then replaces the cached one
+                  Log.d(TAG, "cached channel " + channel + " of " + address + " failed: " + ex.getMessage());
+                  closeQuietly(socket);
+                  channel = 0;
+                  continue;
+                }
+
+                if (pending.cancelled) {
+                  result.error("connect_cancelled", "connect was cancelled", null);
+                } else if (pending.timedOut) {
+                  result.error("connect_timeout", "no connection after " + timeout + "ms", null);
+                } else {
+                  Log.e(TAG, ex.getMessage(), ex);
+                  result.error("connect_error", ex.getMessage(), null);
+                }
+                pending.close();
+                return;
+              }
             }
+          } finally {
+            if (timer != null) {
+              timer.cancel(false);
+            }
+          }
+
+          if (!pending.complete()) {
+            // Timed out or cancelled just as the connection came up
+            result.error(pending.cancelled ? "connect_cancelled" : "connect_timeout", "connect was aborted", null);
+            return;
+          }
+
+          ConnectedThread connection;
+          try {
+            connection = new ConnectedThread(address, service, socket, decoder, writeQueueCapacity, reconnectPolicy,
+                    traceCapacity, receiveBuffer);
+          } catch (IOException ex) {
+            closeQuietly(socket);
+            throw ex;
+          }
+          connection.writeQueue.setRateLimit(writeRateLimit);
+          connection.stats.connectLatency.recordNanos(System.nanoTime() - requested);
+          if (CONNECTIONS.putIfAbsent(address, connection) != null) {
+            // Lost a race against a parallel connect to the same device
+            connection.cancel();
+            result.error("connect_error", "already connected", null);
+            return;
           }
+          connection.start();
+
+          markConnected(device, service, channel > 0 ? channel : rfcommChannel(socket));
 
           result.success(true);
         } catch (Exception ex) {
           Log.e(TAG, ex.getMessage(), ex);
-          result.error("connect_error", ex.getMessage(), ex);
+          result.error("connect_error", ex.getMessage(), null);
+        } finally {
+          CONNECTING.remove(address, pending);
         }
-      } catch (Exception ex) {
-        Log.e(TAG, ex.getMessage(), ex);
-        result.error("connect_error", ex.getMessage(), ex);
-      }
-    });
+      });
+    } catch (RejectedExecutionException ex) {
+      CONNECTING.remove(address, pending);
+      result.error("connect_error", "too many connects in progress", null);
+    }
+  }
+
+  /**
+   * Opens an RFCOMM server socket under the service record and accepts clients on a thread of
+   * its own. Each client gets a connection entry like an outgoing connect; at most maxClients
+   * are served at a time, further clients are accepted and closed right away.
+   */
+  private synchronized void listen(Result result, String name, UUID service, boolean secure, int maxClients,
+                                   FrameDecoder decoder, int writeQueueCapacity, int traceCapacity,
+                                   ReceiveBuffer.Options receiveBuffer) {
+    if (acceptThread != null) {
+      result.error("listen_error", "already listening", null);
+      return;
+    }
+
+    BluetoothServerSocket serverSocket;
+    try {
+      serverSocket = secure
+              ? mBluetoothAdapter.listenUsingRfcommWithServiceRecord(name, service)
+              : mBluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(name, service);
+    } catch (IOException ex) {
+      Log.e(TAG, ex.getMessage(), ex);
+      result.error("listen_error", ex.getMessage(), null);
+      return;
+    }
+
+    acceptThread = new AcceptThread(serverSocket, service, Math.max(1, maxClients), decoder, writeQueueCapacity,
+            traceCapacity, receiveBuffer);
+    acceptThread.start();
+    result.success(true);
+  }
+
+  /** Stops accepting clients, clients already connected stay connected */
+  private synchronized void stopListening() {
+    if (acceptThread != null) {
+      acceptThread.cancel();
+      acceptThread = null;
+    }
+  }
+
+  private synchronized boolean isListening() {
+    return acceptThread != null;
   }
 
-  private void disconnect(Result result) {
-    if (THREAD == null) {
+  private void cancelConnect(Result result, String address) {
+    PendingConnect pending = CONNECTING.get(address);
+
+    if (pending == null) {
+      result.error("connect_error", "not connecting", null);
+      return;
+    }
+
+    pending.abort(true);
+    result.success(true);
+  }
+
+  private void disconnect(Result result, String address) {
+    final List<ConnectedThread> targets = new ArrayList<>();
+
+    if (address != null) {
+      ConnectedThread connection = CONNECTIONS.get(address);
+      if (connection != null) {
+        targets.add(connection);
+      }
+    } else {
+      // Without an address every connection is closed
+      targets.addAll(CONNECTIONS.values());
+    }
+
+    if (targets.isEmpty()) {
       result.error("disconnection_error", "not connected", null);
       return;
     }
-    AsyncTask.execute(() -> {
+    CONNECT_EXECUTOR.execute(() -> {
       try {
-        THREAD.cancel();
-        THREAD = null;
+        for (ConnectedThread connection : targets) {
+          CONNECTIONS.remove(connection.address, connection);
+          connection.cancel();
+          if (!CONNECTIONS.containsKey(connection.address)) {
+            setConnected(connection.address, false);
+          }
+        }
         result.success(true);
       } catch (Exception ex) {
         Log.e(TAG, ex.getMessage(), ex);
-        result.error("disconnection_error", ex.getMessage(), ex);
+        result.error("disconnection_error", ex.getMessage(), null);
       }
     });
   }
@@ -384,41 +1060,50 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
     if (ContextCompat.checkSelfPermission(applicationContext, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
       Log.d(TAG, "Need to get permissions");
 
-      applicationActivity.requestPermissions(new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, REQUEST_COARSE_LOCATION_PERMISSIONS);
+      if (applicationActivity == null) {
+        noActivity(result);
+        return false;
+      }
       pendingResult = result;
       pendingMethodCall = call;
+      // Method calls may run on a task queue, the activity wants to be asked from the main thread.
+      // It may have been detached in between
+      mainHandler.post(() -> {
+        Activity activity = applicationActivity;
+        if (activity == null) {
+          if (pendingResult == result) {
+            pendingResult = null;
+            pendingMethodCall = null;
+          }
+          noActivity(result);
+          return;
+        }
+        activity.requestPermissions(
+                new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, REQUEST_COARSE_LOCATION_PERMISSIONS);
+      });
       return false;
     } else {
       return true;
     }
   }
 
+  private static void noActivity(Result result) {
+    result.error("no_activity", "location permissions can only be requested with an attached activity", null);
+  }
+
   private void discover(Result result) {
     try {
-      // Clear the existing device list and stop any existing scan jobs
-      foundDevices.clear();
+      // Drop expired devices and stop any existing scan jobs, cached devices stay listed
+      foundDevices.evict(deviceCache.cutoff(System.currentTimeMillis()));
       mBluetoothAdapter.cancelDiscovery();
 
-      // TODO: Future feature
-      //    if (leScanCallback != null) {
-      //      mBluetoothAdapter.stopLeScan(leScanCallback);
-      //    }
-
       // Add already bonded devices
       for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
-        foundDevices.add(new Device(
-                device.getName(),
-                device.getAddress(),
-                device.getType(),
-                device.getBondState() == BluetoothDevice.BOND_BONDED,
-                false
-                ));
+        addDevice(device);
       }
-      applicationContext.sendBroadcast(new Intent(ACTION_DEVICE_LIST_UPDATED));
 
       // Start scan job
       mBluetoothAdapter.startDiscovery();
-      // mBluetoothAdapter.startLeScan(leScanCallback);
 
       result.success(true);
     } catch (Exception ex) {
@@ -429,20 +1114,13 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
 
   private void bonded(Result result) {
     try {
-      // Clear the existing device list
-      foundDevices.clear();
+      // Drop expired devices, cached devices stay listed
+      foundDevices.evict(deviceCache.cutoff(System.currentTimeMillis()));
 
       // Add already bonded devices
       for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
-        foundDevices.add(new Device(
-                device.getName(),
-                device.getAddress(),
-                device.getType(),
-                device.getBondState() == BluetoothDevice.BOND_BONDED,
-                false
-        ));
+        addDevice(device);
       }
-      applicationContext.sendBroadcast(new Intent(ACTION_DEVICE_LIST_UPDATED));
 
       result.success(true);
     } catch (Exception ex) {
@@ -451,28 +1129,512 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
     }
   }
 
-  private void write(Result result, byte[] message) {
-    if (THREAD == null) {
-      result.error("write_error", "not connected", null);
-      return;
+  private LeScanner.Listener createLeScanListener() {
+    return new LeScanner.Listener() {
+      @Override
+      public void onResult(ScanResult result) {
+        // Advertised names are often missing from the cached device name
+        ScanRecord record = result.getScanRecord();
+        String name = record != null && record.getDeviceName() != null ? record.getDeviceName() : null;
+        addDevice(result.getDevice(), name, result.getRssi(), System.currentTimeMillis());
+        scanScheduler.found(result.getDevice().getAddress());
+      }
+
+      @Override
+      public void onFailed(int errorCode) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "leScanFailed");
+        event.put("errorCode", errorCode);
+        events.success(event);
+      }
+    };
+  }
+
+  /**
+   * Starts duty-cycled discovery, see {@link ScanScheduler}. Each window runs a classic inquiry
+   * unless 'classic' is false and an LE scan with the 'leScan' arguments of startLeScan if given.
+   */
+  @SuppressWarnings("unchecked")
+  private void startScanSchedule(Map<String, Object> arguments) {
+    ScanScheduler.Options options = ScanScheduler.Options.fromArguments(arguments);
+    Object leScan = arguments == null ? null : arguments.get("leScan");
+    if (leScan != null) {
+      if (!(leScan instanceof Map)) {
+        throw new IllegalArgumentException("leScan must be a map");
+      }
+      // Bad filters are reported now rather than failing at every window
+      LeScanner.buildFilters((Map<String, Object>) leScan);
     }
+    scheduleClassic = arguments == null || !Boolean.FALSE.equals(arguments.get("classic"));
+    scheduleLeArguments = (Map<String, Object>) leScan;
 
-    try {
-      THREAD.write(message);
-      result.success(true);
+    // As for discover, expired devices go and bonded ones are listed before the first window
+    foundDevices.evict(deviceCache.cutoff(System.currentTimeMillis()));
+    for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
+      addDevice(device);
+    }
+
+    scanScheduler.start(options);
+  }
+
+  private ScanScheduler.Radio createScanRadio() {
+    return new ScanScheduler.Radio() {
+      @Override
+      public void startScan() {
+        if (scheduleClassic) {
+          mBluetoothAdapter.startDiscovery();
+        }
+        Map<String, Object> leArguments = scheduleLeArguments;
+        if (leArguments != null) {
+          try {
+            leScanner.start(leArguments);
+          } catch (IllegalStateException ex) {
+            Log.d(TAG, "scheduled le scan: " + ex.getMessage());
+          }
+        }
+      }
+
+      @Override
+      public void stopScan() {
+        if (scheduleClassic) {
+          mBluetoothAdapter.cancelDiscovery();
+        }
+        if (scheduleLeArguments != null) {
+          leScanner.stop();
+        }
+      }
+
+      @Override
+      public boolean busy() {
+        if (!CONNECTING.isEmpty()) {
+          return true;
+        }
+        synchronized (uuidFetches) {
+          if (!uuidFetches.isEmpty()) {
+            return true;
+          }
+        }
+        for (ConnectedThread connection : CONNECTIONS.values()) {
+          if (connection.writeQueue.bulkActive()) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  private ScanScheduler.Listener createScanListener() {
+    return new ScanScheduler.Listener() {
+      @Override
+      public void onState(String state) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "scanState");
+        event.put("state", state);
+        events.success(event);
+      }
+
+      @Override
+      public void onFinished(String reason, int found) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "scanFinished");
+        event.put("reason", reason);
+        event.put("found", found);
+        events.success(event);
+      }
+    };
+  }
+
+  /** Stores a bonded device, which has not necessarily been seen */
+  private void addDevice(BluetoothDevice device) {
+    addDevice(device, null, Device.RSSI_UNKNOWN, 0);
+  }
+
+  /** Stores the device, using name instead of the cached device name when given */
+  private void addDevice(BluetoothDevice device, String name, int rssi, long lastSeen) {
+    Device found = new Device(
+            name != null ? name : device.getName(),
+            device.getAddress(),
+            device.getType(),
+            device.getBondState() == BluetoothDevice.BOND_BONDED,
+            CONNECTIONS.containsKey(device.getAddress()),
+            rssi,
+            lastSeen
+    );
+
+    foundDevices.put(found);
+  }
+
+  // Set the connection status
+  private void setConnected(String address, boolean connected) {
+    foundDevices.setConnected(address, connected);
+  }
+
+  /**
+   * Records a successful connect, so the service and its channel, 0 if unknown, can be reused
+   * for reconnecting
+   */
+  private void markConnected(BluetoothDevice device, UUID service, int channel) {
+    Device known = foundDevices.get(device.getAddress());
+    if (known == null) {
+      addDevice(device);
+      known = foundDevices.get(device.getAddress());
+    }
+    foundDevices.put(known.connectedTo(service.toString(), channel, System.currentTimeMillis()));
+    scheduleCacheSave();
+  }
+
+  /** RFCOMM channel of the service connected to last time, 0 if unknown or another service */
+  private int cachedChannel(String address, UUID service) {
+    Device known = foundDevices.get(address);
+    return known != null && service.toString().equals(known.service) ? known.channel : 0;
+  }
+
+  /** Socket to an RFCOMM channel directly, without an SDP query; null if that isn't possible */
+  private static BluetoothSocket channelSocket(BluetoothDevice device, int channel) {
+    try {
+      // Not part of the public API, but present on all Android versions in use
+      Method createRfcommSocket = device.getClass().getMethod("createRfcommSocket", int.class);
+      return (BluetoothSocket) createRfcommSocket.invoke(device, channel);
     } catch (Exception ex) {
-      Log.e(TAG, ex.getMessage(), ex);
-      result.error("write_error", ex.getMessage(), ex);
+      Log.d(TAG, "no direct RFCOMM sockets: " + ex.getMessage());
+      return null;
+    }
+  }
+
+  /** Channel a connected socket ended up on, 0 if the platform doesn't tell */
+  private static int rfcommChannel(BluetoothSocket socket) {
+    try {
+      Field port = BluetoothSocket.class.getDeclaredField("mPort");
+      port.setAccessible(true);
+      int channel = port.getInt(socket);
+      // RFCOMM has channels 1 to 30
+      return channel >= 1 && channel <= 30 ? channel : 0;
+    } catch (Exception | LinkageError ex) {
+      return 0;
     }
   }
 
-  private void read(Result result) {
-    if (THREAD == null) {
-      result.error("write_error", "not connected", null);
+  /**
+   * Queries the service UUIDs of several devices at once and completes with a map of address
+   * to UUIDs, null where nothing is known. SDP queries are started for all devices right away
+   * and answered by ACTION_UUID broadcasts; unless refresh is set, devices with known UUIDs are
+   * answered from the cache without a query.
+   */
+  private void fetchUuids(Result result, List<String> addresses, boolean refresh, long timeout) {
+    Map<String, Object> known = new HashMap<>();
+    Set<String> queried = new HashSet<>();
+    for (String address : addresses) {
+      List<String> uuids = refresh ? null : cachedUuids(address);
+      if (uuids != null) {
+        known.put(address, uuids);
+      } else {
+        queried.add(address);
+      }
+    }
+    if (queried.isEmpty()) {
+      result.success(known);
       return;
     }
+
+    // Inquiry and SDP share the radio, queries are much slower while discovering
+    mBluetoothAdapter.cancelDiscovery();
+
+    final UuidFetch fetch = new UuidFetch(result, known, queried);
+    synchronized (uuidFetches) {
+      uuidFetches.add(fetch);
+      updateUuidReceiver();
+    }
+    scanScheduler.checkBusy();
+    fetch.timer = SCHEDULER.schedule(fetch::finish, timeout, TimeUnit.MILLISECONDS);
+
+    for (String address : queried) {
+      BluetoothDevice device;
+      try {
+        device = mBluetoothAdapter.getRemoteDevice(address);
+      } catch (IllegalArgumentException ex) {
+        fetch.received(address, null);
+        continue;
+      }
+      if (!device.fetchUuidsWithSdp()) {
+        Log.d(TAG, "could not query the services of " + address);
+        fetch.received(address, cachedUuids(address));
+      }
+    }
+  }
+
+  /** UUIDs from the device store, or the ones the platform cached, null if neither knows any */
+  private List<String> cachedUuids(String address) {
     try {
-      result.success(THREAD.read());
+      Device known = foundDevices.get(address);
+      if (known != null && known.uuids != null) {
+        return known.uuids;
+      }
+      return uuidStrings(mBluetoothAdapter.getRemoteDevice(address).getUuids());
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  /** Stores the result of an SDP query and completes the fetches waiting for it */
+  private void onUuids(BluetoothDevice device, Parcelable[] extra) {
+    String address = device.getAddress();
+    List<String> uuids = uuidStrings(extra);
+    if (uuids != null) {
+      Device known = foundDevices.get(address);
+      if (known == null) {
+        addDevice(device);
+        known = foundDevices.get(address);
+      }
+      foundDevices.put(known.withUuids(uuids));
+      scheduleCacheSave();
+    } else {
+      // The query failed, answer with what is known from before
+      uuids = cachedUuids(address);
+    }
+
+    List<UuidFetch> fetches;
+    synchronized (uuidFetches) {
+      fetches = new ArrayList<>(uuidFetches);
+    }
+    for (UuidFetch fetch : fetches) {
+      fetch.received(address, uuids);
+    }
+  }
+
+  private void removeUuidFetch(UuidFetch fetch) {
+    synchronized (uuidFetches) {
+      if (uuidFetches.remove(fetch)) {
+        updateUuidReceiver();
+      }
+    }
+  }
+
+  /** Registers the ACTION_UUID receiver while it has anyone to answer, called holding uuidFetches */
+  private void updateUuidReceiver() {
+    boolean wanted = listeningToEvents || !uuidFetches.isEmpty();
+    if (wanted && uuidReceiver == null) {
+      uuidReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          // Also the result of SDP queries started by connects, or by other apps
+          BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+          if (device != null) {
+            onUuids(device, intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID));
+          }
+          sendEvent("uuids", device, -1, -1);
+        }
+      };
+      applicationContext.registerReceiver(uuidReceiver, new IntentFilter(BluetoothDevice.ACTION_UUID));
+    } else if (!wanted && uuidReceiver != null) {
+      applicationContext.unregisterReceiver(uuidReceiver);
+      uuidReceiver = null;
+    }
+  }
+
+  private static List<String> uuidStrings(Parcelable[] uuids) {
+    if (uuids == null) {
+      return null;
+    }
+    List<String> list = new ArrayList<>(uuids.length);
+    for (Parcelable uuid : uuids) {
+      list.add(((ParcelUuid) uuid).getUuid().toString());
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  /** Logs the traffic of every connection, rate limited to linesPerSecond each, 0 to stop */
+  private void setWireLogging(int linesPerSecond) {
+    wireLogRate = linesPerSecond;
+    for (ConnectedThread connection : CONNECTIONS.values()) {
+      connection.applyWireLogging();
+    }
+  }
+
+  /** Stats of one connection, or of all of them by address when no address is given */
+  private void getStats(Result result, String address) {
+    if (address == null) {
+      result.success(allStats());
+      return;
+    }
+
+    ConnectedThread connection = CONNECTIONS.get(address);
+    if (connection == null) {
+      result.error("stats_error", "not connected", null);
+      return;
+    }
+    result.success(connection.statsMap());
+  }
+
+  private Map<String, Object> allStats() {
+    Map<String, Object> stats = new HashMap<>();
+    for (ConnectedThread connection : CONNECTIONS.values()) {
+      stats.put(connection.address, connection.statsMap());
+    }
+    return stats;
+  }
+
+  /** Sends the stats of all connections as a 'stats' event every interval, 0 to stop */
+  private synchronized void setStatsInterval(long interval) {
+    if (statsTimer != null) {
+      statsTimer.cancel(false);
+      statsTimer = null;
+    }
+    if (interval <= 0) {
+      return;
+    }
+
+    statsTimer = SCHEDULER.scheduleAtFixedRate(() -> {
+      if (CONNECTIONS.isEmpty()) {
+        return;
+      }
+      Map<String, Object> event = new HashMap<>();
+      event.put("event", "stats");
+      event.put("connections", allStats());
+      events.success(event);
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private String cachedService(String address) {
+    try {
+      Device known = foundDevices.get(address);
+      return known == null ? null : known.service;
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  private void loadDeviceCache() {
+    IO_EXECUTOR.execute(() -> {
+      try {
+        for (Device device : deviceCache.load(System.currentTimeMillis())) {
+          foundDevices.restore(device);
+        }
+      } catch (IOException ex) {
+        Log.e(TAG, "could not load the device cache", ex);
+      }
+    });
+  }
+
+  /** Saves the device cache shortly, coalescing changes that follow in quick succession */
+  private void scheduleCacheSave() {
+    if (cacheSaveScheduled.compareAndSet(false, true)) {
+      SCHEDULER.schedule(() -> IO_EXECUTOR.execute(this::saveDeviceCache), CACHE_SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void saveDeviceCache() {
+    cacheSaveScheduled.set(false);
+    try {
+      deviceCache.save(foundDevices.snapshot(), System.currentTimeMillis());
+    } catch (IOException ex) {
+      Log.e(TAG, "could not save the device cache", ex);
+    }
+  }
+
+  private void write(Result result, String address, byte[] message, int lane) {
+    ConnectedThread connection = findConnection(result, address, "write_error");
+    if (connection == null) {
+      return;
+    }
+
+    // Completed by the writer thread once the data has been flushed to the socket
+    boolean queued = connection.writeQueue.offer(ByteBuffer.wrap(message), lane, new WriteQueue.Callback() {
+      @Override
+      public void onSending() {
+      }
+
+      @Override
+      public void onProgress(long sent, long total) {
+      }
+
+      @Override
+      public void onWritten() {
+        result.success(true);
+      }
+
+      @Override
+      public void onError(IOException error) {
+        Log.e(TAG, error.getMessage(), error);
+        result.error("write_error", error.getMessage(), null);
+      }
+    });
+
+    if (!queued) {
+      result.error("write_queue_full", "the write queue is full", connection.writeQueue.depth());
+    }
+  }
+
+  /**
+   * Writes a request and completes with the first received frame the matcher accepts as its
+   * reply, instead of Dart polling with write and read. Replies taken by a transaction are not
+   * passed on to the data streams.
+   */
+  private void transact(final Result result, String address, byte[] request, ReplyMatcher matcher, final long timeout) {
+    ConnectedThread connection = findConnection(result, address, "transact_error");
+    if (connection == null) {
+      return;
+    }
+
+    final Transactions transactions = connection.transactions;
+    final Transactions.Transaction transaction = transactions.add(request, matcher, new Transactions.Callback() {
+      @Override
+      public void onReply(byte[] reply) {
+        result.success(reply);
+      }
+
+      @Override
+      public void onError(String code, String message) {
+        result.error(code, message, null);
+      }
+    });
+    if (transaction == null) {
+      result.error("transact_busy", "too many transactions in flight", null);
+      return;
+    }
+
+    // The timeout counts from queuing, so a request stuck behind a down link fails in time
+    if (timeout > 0) {
+      transactions.setTimeout(transaction, SCHEDULER.schedule(
+              () -> transactions.fail(transaction, "transact_timeout", "no reply after " + timeout + "ms"),
+              timeout, TimeUnit.MILLISECONDS));
+    }
+
+    // Requests expecting a reply are latency sensitive, they don't wait behind bulk transfers
+    boolean queued = connection.writeQueue.offer(ByteBuffer.wrap(request), WriteQueue.CONTROL, new WriteQueue.Callback() {
+      @Override
+      public void onSending() {
+        // Matches from now on, not while the request still waits in the queue, but before a
+        // fast reply can arrive
+        transactions.arm(transaction);
+      }
+
+      @Override
+      public void onProgress(long sent, long total) {
+      }
+
+      @Override
+      public void onWritten() {
+      }
+
+      @Override
+      public void onError(IOException error) {
+        transactions.fail(transaction, "write_error", error.getMessage());
+      }
+    });
+
+    if (!queued) {
+      transactions.fail(transaction, "write_queue_full", "the write queue is full");
+    }
+  }
+
+  private void read(Result result, String address) {
+    ConnectedThread connection = findConnection(result, address, "read_error");
+    if (connection == null) {
+      return;
+    }
+    try {
+      result.success(connection.read());
     } catch (Exception ex) {
       Log.e(TAG, ex.getMessage(), ex);
       result.error("write_error", ex.getMessage(), ex);
@@ -516,124 +1678,604 @@ public class FlutterBluetoothPlugin implements FlutterPlugin, MethodCallHandler,
   }
 
   // Classes
-  private class Device {
-    final public String name;
-    final public String address;
-    final int type;
-    boolean bonded;
-    boolean connected;
-
-    Device(String name, String address, int type, boolean bonded, boolean connected) {
-      this.name = name;
-      this.address = address;
-      this.type = type;
-      this.bonded = bonded;
-      this.connected = connected;
+  /** A 'fetchUuids' call, completed once every queried device answered or on its timeout */
+  private class UuidFetch {
+    private final Result result;
+    // Address to UUIDs, answered and cached devices
+    private final Map<String, Object> uuids;
+    private final Set<String> remaining;
+    ScheduledFuture<?> timer;
+    private boolean done = false;
+
+    UuidFetch(Result result, Map<String, Object> known, Set<String> queried) {
+      this.result = result;
+      this.uuids = known;
+      this.remaining = new HashSet<>(queried);
     }
-  }
 
-  class DeviceCompare implements Comparator<Device>{
-    @Override
-    public int compare(Device o1, Device o2) {
-      return o1.address.compareTo(o2.address);
+    void received(String address, List<String> list) {
+      synchronized (this) {
+        if (done || !remaining.remove(address)) {
+          return;
+        }
+        uuids.put(address, list);
+        if (!remaining.isEmpty()) {
+          return;
+        }
+      }
+      finish();
+    }
+
+    /** Completes with what has been answered, the devices still outstanding get cached UUIDs */
+    void finish() {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        for (String address : remaining) {
+          uuids.put(address, cachedUuids(address));
+        }
+      }
+      if (timer != null) {
+        timer.cancel(false);
+      }
+      removeUuidFetch(this);
+      result.success(uuids);
     }
   }
 
-  private class ConnectedThread extends Thread {
-    private final BluetoothSocket mmSocket;
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
+  /** A connect in progress, closing its socket makes the blocked connect() fail */
+  private static class PendingConnect {
+    private BluetoothSocket socket;
+    volatile boolean cancelled = false;
+    volatile boolean timedOut = false;
 
-    ConnectedThread(BluetoothSocket socket) {
-      mmSocket = socket;
-      InputStream tmpIn = null;
-      OutputStream tmpOut = null;
+    /** Returns false if the connect was aborted before the socket existed */
+    synchronized boolean attach(BluetoothSocket socket) {
+      if (cancelled || timedOut) {
+        return false;
+      }
+      this.socket = socket;
+      return true;
+    }
 
-      try {
-        tmpIn = socket.getInputStream();
-        tmpOut = socket.getOutputStream();
-      } catch (IOException e) {
-        e.printStackTrace();
+    synchronized void abort(boolean cancel) {
+      if (cancel) {
+        cancelled = true;
+      } else {
+        timedOut = true;
+      }
+      close();
+    }
+
+    /** Hands the socket over to the connection, returns false if it was aborted meanwhile */
+    synchronized boolean complete() {
+      if (cancelled || timedOut) {
+        return false;
       }
-      inputStream = tmpIn;
-      outputStream = tmpOut;
+      socket = null;
+      return true;
     }
 
-    public void write(byte[] bytes) {
+    synchronized void close() {
+      if (socket == null) {
+        return;
+      }
       try {
-        outputStream.write(bytes);
+        socket.close();
       } catch (IOException e) {
-        e.printStackTrace();
+        Log.d(TAG, "closing pending socket failed: " + e.getMessage());
       }
     }
+  }
 
-    public byte[] read() {
+  private class AcceptThread extends Thread {
+    // An active piconet holds at most seven peers
+    static final int DEFAULT_MAX_CLIENTS = 7;
+
+    private final BluetoothServerSocket serverSocket;
+    private final UUID service;
+    private final int maxClients;
+    private final FrameDecoder decoder;
+    private final int writeQueueCapacity;
+    private final int traceCapacity;
+    private final ReceiveBuffer.Options receiveBuffer;
+    // Clients accepted by this server, pruned of closed ones on every accept
+    private final List<ConnectedThread> clients = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    AcceptThread(BluetoothServerSocket serverSocket, UUID service, int maxClients, FrameDecoder decoder,
+                 int writeQueueCapacity, int traceCapacity, ReceiveBuffer.Options receiveBuffer) {
+      super("flutter_bluetooth-accept");
+      this.serverSocket = serverSocket;
+      this.service = service;
+      this.maxClients = maxClients;
+      this.decoder = decoder;
+      this.writeQueueCapacity = writeQueueCapacity;
+      this.traceCapacity = traceCapacity;
+      this.receiveBuffer = receiveBuffer;
+    }
+
+    @Override
+    public void run() {
+      while (!closed) {
+        BluetoothSocket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException e) {
+          // Thrown when the server socket is closed by cancel() or when Bluetooth turns off
+          if (!closed) {
+            Log.e(TAG, "accept failed: " + e.getMessage(), e);
+            sendServerEvent("listenFailed", null);
+          }
+          break;
+        }
+        accept(socket);
+      }
+      closeQuietly(serverSocket);
+
+      synchronized (FlutterBluetoothPlugin.this) {
+        if (acceptThread == this) {
+          acceptThread = null;
+        }
+      }
+    }
+
+    private void accept(BluetoothSocket socket) {
+      BluetoothDevice device = socket.getRemoteDevice();
+      String address = device.getAddress();
+
+      for (Iterator<ConnectedThread> it = clients.iterator(); it.hasNext(); ) {
+        ConnectedThread client = it.next();
+        if (CONNECTIONS.get(client.address) != client) {
+          it.remove();
+        }
+      }
+      // An outgoing connect to the same device in progress would end up racing this one
+      if (clients.size() >= maxClients || CONNECTIONS.containsKey(address) || CONNECTING.containsKey(address)) {
+        closeQuietly(socket);
+        sendServerEvent("clientRejected", address);
+        return;
+      }
+
+      ConnectedThread connection;
       try {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        boolean avail = true;
-        while (avail && inputStream.available() > 0) {
-          nRead = inputStream.read();
-
-          if (nRead == 0x03 || nRead == -1) {
-            avail = false;
+        connection = new ConnectedThread(address, service, socket, decoder, writeQueueCapacity, null, traceCapacity,
+                receiveBuffer);
+      } catch (IOException ex) {
+        Log.e(TAG, ex.getMessage(), ex);
+        closeQuietly(socket);
+        return;
+      }
+      if (CONNECTIONS.putIfAbsent(address, connection) != null) {
+        // An outgoing connect to the same device won the race. Not started, this connection never
+        // registered its data channel, so cancelling it leaves the winner's alone
+        connection.cancel();
+        sendServerEvent("clientRejected", address);
+        return;
+      }
+      clients.add(connection);
+      connection.start();
+
+      addDevice(device);
+      sendServerEvent("clientConnected", address);
+    }
+
+    private void sendServerEvent(String type, String address) {
+      Map<String, Object> event = new HashMap<>();
+      event.put("event", type);
+      event.put("address", address);
+      events.success(event);
+    }
+
+    void cancel() {
+      closed = true;
+      closeQuietly(serverSocket);
+    }
+  }
+
+  private class ConnectedThread extends Thread implements ReadLoop.Listener {
+    final String address;
+    private final UUID service;
+    // Re-establishes the link when it drops, null to close the connection instead
+    private final ReconnectPolicy reconnectPolicy;
+    // Current link, replaced when the connection is re-established
+    private volatile BluetoothSocket mmSocket;
+    private volatile InputStream inputStream;
+    private volatile OutputStream outputStream;
+    // Socket of a reconnect attempt in progress, so cancel() can abort it
+    private volatile BluetoothSocket connectingSocket;
+    private volatile boolean closed = false;
+    // Guards swapping the link against cancel()
+    private final Object linkLock = new Object();
+    // Splits incoming data into frames, null to pass data on as it arrives
+    private final FrameDecoder decoder;
+    // Read loop of the current link
+    private ReadLoop readLoop;
+    // Received data on its way to the data streams, or kept for 'read' polls while nobody listens
+    final ReceiveBuffer received;
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+    // Data stream of this connection alone, 'flutter_bluetooth/data/<address>', registered by
+    // start() once the connection is the one in CONNECTIONS
+    private final EventChannel channel;
+    private volatile EventSink channelSink;
+    final WriteQueue writeQueue;
+    final ConnectionStats stats = new ConnectionStats();
+    // Outstanding 'transact' calls waiting for their reply
+    final Transactions transactions = new Transactions(Transactions.DEFAULT_MAX_PENDING);
+    // Last bytes sent and received for 'dumpTrace', null when tracing is off
+    final WireTrace trace;
+
+    ConnectedThread(String address, UUID service, BluetoothSocket socket, FrameDecoder decoder, int writeQueueCapacity,
+                    ReconnectPolicy reconnectPolicy, int traceCapacity, ReceiveBuffer.Options receiveBuffer)
+            throws IOException {
+      super("flutter_bluetooth-" + address);
+      this.address = address;
+      this.service = service;
+      this.reconnectPolicy = reconnectPolicy;
+      this.decoder = decoder;
+      this.trace = traceCapacity > 0 ? new WireTrace(address, traceCapacity) : null;
+      applyWireLogging();
+      this.received = new ReceiveBuffer(receiveBuffer, decoder != null, new ReceiveBuffer.Listener() {
+        @Override
+        public void onHighWater(int size) {
+          sendReceiveBufferEvent("receiveHighWater", size);
+        }
+
+        @Override
+        public void onLowWater(int size) {
+          sendReceiveBufferEvent("receiveLowWater", size);
+        }
+      });
+
+      mmSocket = socket;
+      inputStream = socket.getInputStream();
+      outputStream = socket.getOutputStream();
+      writeQueue = new WriteQueue("flutter_bluetooth-write-" + address, outputStream, writeQueueCapacity,
+              WriteQueue.DEFAULT_BATCH_SIZE, reconnectPolicy != null, stats, trace);
+
+      channel = new EventChannel(messenger, Protocol.CONNECTION_DATA_CHANNEL + address);
+    }
+
+    /** Takes over the address' data channel and starts reading, only after winning CONNECTIONS */
+    @Override
+    public synchronized void start() {
+      synchronized (DATA_CHANNEL_OWNERS) {
+        DATA_CHANNEL_OWNERS.put(address, this);
+        channel.setStreamHandler(new StreamHandler() {
+          @Override
+          public void onListen(Object arguments, EventSink events) {
+            channelSink = events;
+            for (byte[] data : drain()) {
+              events.success(data);
+            }
           }
 
-          buffer.write(nRead);
+          @Override
+          public void onCancel(Object arguments) {
+            channelSink = null;
+          }
+        });
+      }
+      super.start();
+    }
+
+    @Override
+    public void run() {
+      writeQueue.start();
+
+      while (!closed) {
+        readLink();
+        closeLink();
+
+        if (closed || reconnectPolicy == null || !reconnect()) {
+          break;
         }
+      }
 
-        buffer.flush();
+      // The link is gone for good, release everything that belongs to the connection
+      closed = true;
+      CONNECTIONS.remove(address, this);
+      writeQueue.close();
+      received.close();
+      transactions.failAll("connection_closed", "the connection was closed");
+      removeChannel();
+      // After a disconnect the device may already be connected again
+      if (!CONNECTIONS.containsKey(address)) {
+        setConnected(address, false);
+      }
+    }
 
-        return buffer.toByteArray();
+    private void readLink() {
+      readLoop = new ReadLoop(inputStream, decoder, stats, trace);
+      try {
+        readLoop.run(this);
       } catch (IOException e) {
-        e.printStackTrace();
+        // Thrown when the socket is closed by cancel() or by the remote device
+        Log.d(TAG, "read loop finished: " + e.getMessage());
+      }
+    }
+
+    /** Closes the socket and streams of the current link, writes are held until a new one */
+    private void closeLink() {
+      writeQueue.suspend();
+      closeQuietly(outputStream);
+      closeQuietly(inputStream);
+      closeQuietly(mmSocket);
+
+      // A frame cut off by the drop can't be completed by the next link
+      if (decoder != null) {
+        decoder.reset();
+      }
+    }
+
+    /** Retries until a new link is up, returns false if the connection should close instead */
+    private boolean reconnect() {
+      BluetoothDevice device = mmSocket.getRemoteDevice();
+      setConnected(address, false);
+
+      for (int attempt = 0; !closed && !reconnectPolicy.exhausted(attempt); attempt++) {
+        sendConnectionEvent("reconnecting", attempt + 1);
+        try {
+          Thread.sleep(reconnectPolicy.delay(attempt));
+        } catch (InterruptedException e) {
+          return false;
+        }
+
+        long started = System.nanoTime();
+        BluetoothSocket socket = openSocket(device);
+        if (socket == null) {
+          continue;
+        }
+
+        try {
+          InputStream in = socket.getInputStream();
+          OutputStream out = socket.getOutputStream();
+          synchronized (linkLock) {
+            if (closed) {
+              closeQuietly(socket);
+              return false;
+            }
+            mmSocket = socket;
+            inputStream = in;
+            outputStream = out;
+          }
+        } catch (IOException e) {
+          closeQuietly(socket);
+          continue;
+        }
+
+        stats.reconnects.incrementAndGet();
+        stats.connectLatency.recordNanos(System.nanoTime() - started);
+
+        // Queued and unflushed writes go out on the new link
+        writeQueue.resume(outputStream);
+        setConnected(address, true);
+        sendConnectionEvent("reconnected", attempt + 1);
+        return true;
       }
 
+      sendConnectionEvent("reconnectFailed", 0);
+      return false;
+    }
+
+    /**
+     * Connects a new socket, trying a secure and an insecure service record lookup and then
+     * RFCOMM channel 1 directly, which helps with devices whose SDP record is flaky
+     */
+    private BluetoothSocket openSocket(BluetoothDevice device) {
+      mBluetoothAdapter.cancelDiscovery();
+
+      // The cached channel of the service comes first, it needs no SDP query
+      int cached = cachedChannel(address, service);
+      for (int strategy = cached > 0 ? -1 : 0; strategy < 3 && !closed; strategy++) {
+        BluetoothSocket socket = null;
+        try {
+          switch (strategy) {
+            case -1:
+              socket = channelSocket(device, cached);
+              break;
+            case 0:
+              socket = device.createRfcommSocketToServiceRecord(service);
+              break;
+            case 1:
+              socket = device.createInsecureRfcommSocketToServiceRecord(service);
+              break;
+            default:
+              socket = channelSocket(device, 1);
+          }
+          if (socket == null) {
+            continue;
+          }
+
+          connectingSocket = socket;
+          socket.connect();
+          if (strategy == 0 || strategy == 1) {
+            markConnected(device, service, rfcommChannel(socket));
+          }
+          return socket;
+        } catch (Exception e) {
+          Log.d(TAG, "reconnect to " + address + " failed: " + e.getMessage());
+          closeQuietly(socket);
+        } finally {
+          connectingSocket = null;
+        }
+      }
       return null;
     }
 
-    public void cancel() {
+    private void sendConnectionEvent(String type, int attempt) {
+      Map<String, Object> event = new HashMap<>();
+      event.put("event", type);
+      event.put("address", address);
+      event.put("attempt", attempt);
+      events.success(event);
+    }
+
+    /** Unregisters the data channel unless a newer connection to the device took it over */
+    private void removeChannel() {
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (DATA_CHANNEL_OWNERS) {
+            if (DATA_CHANNEL_OWNERS.get(address) == ConnectedThread.this) {
+              DATA_CHANNEL_OWNERS.remove(address);
+              channel.setStreamHandler(null);
+            }
+          }
+        }
+      });
+    }
+
+    /** Per-connection listener first, then the shared data channel */
+    private EventSink sink() {
+      EventSink sink = channelSink;
+      return sink != null ? sink : dataSink;
+    }
+
+    @Override
+    public void onData(ReadEngine engine) {
+      stats.framesIn.incrementAndGet();
+
+      // Unframed, each burst is taken as a whole for a transaction's reply
+      if (!transactions.isEmpty() && transactions.complete(engine.copy())) {
+        return;
+      }
+
+      buffer(engine.array(), 0, engine.length());
+    }
+
+    @Override
+    public void onFrame(byte[] frame) {
+      stats.framesIn.incrementAndGet();
+
+      if (transactions.complete(frame)) {
+        return;
+      }
+
+      buffer(frame, 0, frame.length);
+    }
+
+    /**
+     * Everything received goes through the bounded receive buffer. While a data stream listens
+     * the main thread empties it, all that arrived since its last turn in one go.
+     */
+    private void buffer(byte[] data, int offset, int length) {
       try {
-        outputStream.flush();
-        outputStream.close();
+        if (!received.write(data, offset, length)) {
+          Log.e(TAG, "receive buffer of " + address + " overflowed, closing the connection");
+          sendReceiveBufferEvent("receiveOverflow", received.size());
+          cancel();
+          return;
+        }
+      } catch (InterruptedException e) {
+        // Closing while waiting for room
+        return;
+      }
+
+      if (sink() == null || !deliveryScheduled.compareAndSet(false, true)) {
+        return;
+      }
+      final long readAt = readLoop.readAt();
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          deliveryScheduled.set(false);
+          EventSink sink = sink();
+          if (sink == null) {
+            return;
+          }
+          for (byte[] data : received.drain()) {
+            sink.success(data);
+          }
+          stats.deliveryLatency.recordNanos(System.nanoTime() - readAt);
+        }
+      });
+    }
+
+    private void sendReceiveBufferEvent(String type, int size) {
+      Map<String, Object> event = new HashMap<>();
+      event.put("event", type);
+      event.put("address", address);
+      event.put("size", size);
+      event.put("capacity", received.capacity());
+      event.put("dropped", received.dropped());
+      events.success(event);
+    }
+
+    void applyWireLogging() {
+      if (trace == null) {
+        return;
+      }
+      int rate = wireLogRate;
+      if (rate > 0) {
+        trace.setLogger(new WireTrace.Logger() {
+          @Override
+          public void log(String line) {
+            Log.d(TAG, line);
+          }
+        }, rate);
+      } else {
+        trace.setLogger(null, 0);
+      }
+    }
+
+    Map<String, Object> statsMap() {
+      Map<String, Object> map = stats.toMap(writeQueue.depth(), writeQueue.capacity());
+      map.put("receiveBuffered", received.size());
+      map.put("receiveCapacity", received.capacity());
+      map.put("receiveDropped", received.dropped());
+      return map;
+    }
 
-        inputStream.close();
+    /**
+     * Returns the next buffered frame, or when unframed the buffered data up to and including
+     * the first ETX (everything if there is none)
+     */
+    public byte[] read() {
+      return received.readMessage();
+    }
+
+    /** Returns and clears all buffered data, one entry per frame */
+    public List<byte[]> drain() {
+      return received.drain();
+    }
+
+    /** Closes the connection for good, also stopping a reconnect in progress */
+    public void cancel() {
+      synchronized (linkLock) {
+        closed = true;
+      }
+      interrupt();
+      writeQueue.close();
+      received.close();
+      removeChannel();
 
-        mmSocket.close();
+      try {
+        outputStream.flush();
       } catch (IOException e) {
-        e.printStackTrace();
+        Log.d(TAG, "flush on close failed: " + e.getMessage());
       }
+      closeQuietly(outputStream);
+      closeQuietly(inputStream);
+      closeQuietly(mmSocket);
+      closeQuietly(connectingSocket);
     }
   }
 
-  public static String byteArrayToHex(byte[] a) {
-    StringBuilder sb = new StringBuilder();
-    for(byte b: a) {
-      switch (b) {
-        case 0x02:
-          sb.append("<STX>");
-          break;
-        case 0x03:
-          sb.append("<ETX>");
-          break;
-        case 0x1B:
-          sb.append("<ESCAPE>");
-          break;
-        case 0x05:
-          sb.append("<ENQ>");
-          break;
-        case 0x06:
-          sb.append("<ACQ>");
-          break;
-        default:
-          if (b > 47 && b < 123) {
-            sb.append(String.format("%c", b));
-          } else {
-            sb.append(String.format("%02X", b));
-          }
-      }
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      Log.d(TAG, "close failed: " + e.getMessage());
     }
+  }
 
-    return sb.toString();
+  public static String byteArrayToHex(byte[] a) {
+    return HexDump.format(a);
   }
 }
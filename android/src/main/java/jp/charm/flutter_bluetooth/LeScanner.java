@@ -0,0 +1,163 @@
+package jp.charm.flutter_bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.Log;
+
+/**
+ * BLE scanning on top of {@link BluetoothLeScanner}.
+ *
+ * Filters are applied by the controller where possible and, when the chip supports offloaded
+ * batching, results are delivered in batches every reportDelay milliseconds so the CPU is not
+ * woken for every advertisement.
+ */
+class LeScanner {
+  private static final String TAG = "flutter_bluetooth";
+
+  interface Listener {
+    void onResult(ScanResult result);
+
+    void onFailed(int errorCode);
+  }
+
+  private final BluetoothAdapter adapter;
+  private final Listener listener;
+  private BluetoothLeScanner scanner;
+  private ScanCallback callback;
+
+  LeScanner(BluetoothAdapter adapter, Listener listener) {
+    this.adapter = adapter;
+    this.listener = listener;
+  }
+
+  synchronized boolean isScanning() {
+    return callback != null;
+  }
+
+  /** Starts scanning with the 'filters', 'scanMode' and 'reportDelay' arguments, restarting a running scan */
+  synchronized void start(Map<String, Object> arguments) {
+    // Invalid filters leave a running scan alone
+    List<ScanFilter> filters = buildFilters(arguments);
+
+    stop();
+
+    scanner = adapter.getBluetoothLeScanner();
+    if (scanner == null) {
+      throw new IllegalStateException("bluetooth is turned off");
+    }
+
+    ScanSettings.Builder settings = new ScanSettings.Builder()
+            .setScanMode(Arguments.intArgument(arguments, "scanMode", ScanSettings.SCAN_MODE_LOW_POWER));
+
+    int reportDelay = Arguments.intArgument(arguments, "reportDelay", 0);
+    if (reportDelay > 0) {
+      if (adapter.isOffloadedScanBatchingSupported()) {
+        settings.setReportDelay(reportDelay);
+      } else {
+        Log.d(TAG, "hardware scan batching not supported, reporting every result");
+      }
+    }
+
+    callback = new ScanCallback() {
+      @Override
+      public void onScanResult(int callbackType, ScanResult result) {
+        listener.onResult(result);
+      }
+
+      @Override
+      public void onBatchScanResults(List<ScanResult> results) {
+        for (ScanResult result : results) {
+          listener.onResult(result);
+        }
+      }
+
+      @Override
+      public void onScanFailed(int errorCode) {
+        Log.e(TAG, "le scan failed: " + errorCode);
+        synchronized (LeScanner.this) {
+          callback = null;
+        }
+        listener.onFailed(errorCode);
+      }
+    };
+
+    scanner.startScan(filters, settings.build(), callback);
+  }
+
+  synchronized void stop() {
+    if (callback == null) {
+      return;
+    }
+
+    try {
+      // Flush results still held in the controller's batch buffer before stopping
+      scanner.flushPendingScanResults(callback);
+      scanner.stopScan(callback);
+    } catch (IllegalStateException e) {
+      // The adapter was turned off, the scan is gone already
+      Log.d(TAG, "le scan stop: " + e.getMessage());
+    }
+    callback = null;
+  }
+
+  /** The 'filters' of the start arguments, an IllegalArgumentException for an entry that is not a map */
+  @SuppressWarnings("unchecked")
+  static List<ScanFilter> buildFilters(Map<String, Object> arguments) {
+    List<ScanFilter> filters = new ArrayList<>();
+    Object filterArguments = arguments == null ? null : arguments.get("filters");
+    if (filterArguments instanceof List) {
+      for (Object filter : (List<?>) filterArguments) {
+        if (!(filter instanceof Map)) {
+          throw new IllegalArgumentException("each of 'filters' must be a map");
+        }
+        filters.add(buildFilter((Map<String, Object>) filter));
+      }
+    }
+    return filters;
+  }
+
+  private static ScanFilter buildFilter(Map<String, Object> arguments) {
+    ScanFilter.Builder builder = new ScanFilter.Builder();
+
+    String serviceUuid = (String) arguments.get("serviceUuid");
+    if (serviceUuid != null) {
+      builder.setServiceUuid(ParcelUuid.fromString(serviceUuid));
+    }
+
+    String address = (String) arguments.get("address");
+    if (address != null) {
+      builder.setDeviceAddress(address);
+    }
+
+    String name = (String) arguments.get("name");
+    if (name != null) {
+      builder.setDeviceName(name);
+    }
+
+    Object manufacturerId = arguments.get("manufacturerId");
+    if (manufacturerId instanceof Number) {
+      byte[] data = Arguments.bytesArgument(arguments, "manufacturerData");
+      byte[] mask = Arguments.bytesArgument(arguments, "manufacturerDataMask");
+      if (data == null) {
+        data = new byte[0];
+      }
+      if (mask != null) {
+        builder.setManufacturerData(((Number) manufacturerId).intValue(), data, mask);
+      } else {
+        builder.setManufacturerData(((Number) manufacturerId).intValue(), data);
+      }
+    }
+
+    return builder.build();
+  }
+}
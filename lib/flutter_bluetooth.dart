@@ -1,5 +1,6 @@
 
 import 'dart:async';
+import 'dart:convert';
 import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
@@ -9,12 +10,35 @@ class FlutterBluetooth {
 
   static const MethodChannel _methodChannel = MethodChannel('flutter_bluetooth/method');
   static const EventChannel _eventChannel = EventChannel('flutter_bluetooth/event');
+  static const EventChannel _dataChannel = EventChannel('flutter_bluetooth/data');
+  static const BasicMessageChannel<ByteData?> _bulkChannel = BasicMessageChannel('flutter_bluetooth/bulk', BinaryCodec());
+
+  static int _bulkTransferId = 0;
+
+  // A single native subscription shared by all event streams, listening again would replace it.
+  // Events arrive batched, one list per frame.
+  static final Stream<dynamic> _events =
+      _eventChannel.receiveBroadcastStream().expand((batch) => batch is List ? batch : [batch]);
 
   static Future<String?> get platformVersion async {
     final String? version = await _methodChannel.invokeMethod('getPlatformVersion');
     return version;
   }
 
+  /// Version of the wire contract in protocol/PROTOCOL.md this package speaks
+  static const PROTOCOL_VERSION = 1;
+
+  /// The contract the platform side implements. A platform from before it was versioned
+  /// reports version 0
+  static Future<ProtocolInfo> get protocol async {
+    try {
+      final Map info = await _methodChannel.invokeMethod('getProtocolVersion');
+      return ProtocolInfo.fromMap(info);
+    } on MissingPluginException {
+      return ProtocolInfo(0, ['getPlatformVersion']);
+    }
+  }
+
   static Future<bool> get isAvailable async {
     return await _methodChannel.invokeMethod('isAvailable') ?? false;
   }
@@ -27,6 +51,16 @@ class FlutterBluetooth {
     return await _methodChannel.invokeMethod('isConnected') ?? false;
   }
 
+  static Future<bool> isConnectedTo(String address) async {
+    return await _methodChannel.invokeMethod('isConnected', {'address': address}) ?? false;
+  }
+
+  /// Addresses of all open connections
+  static Future<List<String>> get connections async {
+    final List list = await _methodChannel.invokeMethod('getConnections');
+    return list.cast<String>();
+  }
+
   static Future<void> discover() async {
     return await _methodChannel.invokeMethod('discover');
   }
@@ -35,20 +69,314 @@ class FlutterBluetooth {
     return await _methodChannel.invokeMethod('bonded');
   }
 
-  static Future<dynamic> connect(String address, String serviceUUID) async {
-    return await _methodChannel.invokeMethod('connect', {'address': address, 'service': serviceUUID});
+  /// Starts a BLE scan, results are added to the same device list as [discover].
+  ///
+  /// With a [reportDelay] the controller batches results and delivers them together, where
+  /// the hardware supports it, instead of waking the CPU for every advertisement.
+  static Future<void> startLeScan({List<LeScanFilter>? filters, int scanMode = LeScanMode.LOW_POWER, Duration? reportDelay}) async {
+    return await _methodChannel.invokeMethod('startLeScan', {
+      if (filters != null) 'filters': filters.map((filter) => filter.toMap()).toList(),
+      'scanMode': scanMode,
+      if (reportDelay != null) 'reportDelay': reportDelay.inMilliseconds,
+    });
+  }
+
+  static Future<void> stopLeScan() async {
+    return await _methodChannel.invokeMethod('stopLeScan');
+  }
+
+  /// Discovers in duty cycles instead of one continuous inquiry, see [ScanSchedule].
+  /// Scanning pauses by itself while a connect is being set up or bulk data is being sent,
+  /// and the schedule ends early once its targets are found. Progress is reported on
+  /// [onScanScheduleEvent]; starting a schedule ends the one running.
+  static Future<void> startScanSchedule(ScanSchedule schedule) async {
+    return await _methodChannel.invokeMethod('startScanSchedule', schedule.toMap());
+  }
+
+  static Future<void> stopScanSchedule() async {
+    return await _methodChannel.invokeMethod('stopScanSchedule');
+  }
+
+  /// One of the [ScanScheduleEvent] states
+  static Future<String> get scanScheduleState async {
+    return await _methodChannel.invokeMethod('getScanScheduleState');
+  }
+
+  static Stream<ScanScheduleEvent> get onScanScheduleEvent {
+    return _events
+        .where((event) => event is Map && (event['event'] == 'scanState' || event['event'] == 'scanFinished'))
+        .map((event) => ScanScheduleEvent.fromMap(event));
+  }
+
+  /// Connects to [address]. When [framing] is given, incoming data is split into complete
+  /// frames natively and [onData] / [read] deliver one frame at a time.
+  ///
+  /// Without a [timeout] the platform default applies (around 12 seconds on most devices).
+  /// Connects to different devices run in parallel.
+  ///
+  /// When [serviceUUID] is null the service of the last successful connect to the device
+  /// is used, see [BluetoothDevice.service]. Connecting to that service again goes straight
+  /// to its cached RFCOMM channel, skipping the SDP query, and looks it up again if the
+  /// channel no longer answers.
+  ///
+  /// With a [reconnect] policy a dropped link is re-established natively, writes queued in
+  /// the meantime are sent once it is back, see [onConnectionEvent].
+  ///
+  /// The last [traceCapacity] bytes of traffic, 16 KB by default, are kept for [dumpTrace];
+  /// 0 turns tracing off for the connection.
+  ///
+  /// [writeRateLimit] caps what is sent in bytes per second, see [setWriteRateLimit].
+  ///
+  /// Received data waits in a bounded [receiveBuffer] until it is delivered or read, see
+  /// [onReceiveBufferEvent].
+  static Future<dynamic> connect(String address, String? serviceUUID,
+      {Framing? framing,
+      int? writeQueueCapacity,
+      Duration? timeout,
+      ReconnectPolicy? reconnect,
+      int? traceCapacity,
+      int? writeRateLimit,
+      ReceiveBuffer? receiveBuffer}) async {
+    return await _methodChannel.invokeMethod('connect', {
+      'address': address,
+      if (serviceUUID != null) 'service': serviceUUID,
+      if (framing != null) 'framing': framing.toMap(),
+      if (writeQueueCapacity != null) 'writeQueueCapacity': writeQueueCapacity,
+      if (timeout != null) 'timeout': timeout.inMilliseconds,
+      if (reconnect != null) 'reconnect': reconnect.toMap(),
+      if (traceCapacity != null) 'traceCapacity': traceCapacity,
+      if (writeRateLimit != null) 'writeRateLimit': writeRateLimit,
+      if (receiveBuffer != null) 'receiveBuffer': receiveBuffer.toMap(),
+    });
+  }
+
+  /// Connects to all [addresses] in parallel, the result lists the error of each failed connect
+  static Future<Map<String, PlatformException?>> connectAll(List<String> addresses, String? serviceUUID, {Framing? framing, Duration? timeout}) async {
+    final results = await Future.wait(addresses.map((address) async {
+      try {
+        await connect(address, serviceUUID, framing: framing, timeout: timeout);
+        return null;
+      } on PlatformException catch (ex) {
+        return ex;
+      }
+    }));
+    return Map.fromIterables(addresses, results);
+  }
+
+  /// Accepts incoming RFCOMM connections under the service record [name] and [serviceUUID]
+  /// (the plugin's own UUID by default). Every client becomes a connection like one opened
+  /// with [connect], addressed by its device address and with its own [dataOf] stream.
+  /// At most [maxClients] are served at a time, see [onServerEvent].
+  static Future<dynamic> listen(
+      {String? serviceUUID,
+      String? name,
+      bool secure = true,
+      int? maxClients,
+      Framing? framing,
+      int? writeQueueCapacity,
+      int? traceCapacity,
+      ReceiveBuffer? receiveBuffer}) async {
+    return await _methodChannel.invokeMethod('listen', {
+      if (serviceUUID != null) 'service': serviceUUID,
+      if (name != null) 'name': name,
+      'secure': secure,
+      if (maxClients != null) 'maxClients': maxClients,
+      if (framing != null) 'framing': framing.toMap(),
+      if (writeQueueCapacity != null) 'writeQueueCapacity': writeQueueCapacity,
+      if (traceCapacity != null) 'traceCapacity': traceCapacity,
+      if (receiveBuffer != null) 'receiveBuffer': receiveBuffer.toMap(),
+    });
+  }
+
+  /// Stops accepting clients, connected clients stay connected
+  static Future<dynamic> stopListening() async {
+    return await _methodChannel.invokeMethod('stopListening');
+  }
+
+  static Future<bool> get isListening async {
+    return await _methodChannel.invokeMethod('isListening');
+  }
+
+  /// Clients accepted or turned away while listening
+  static Stream<ServerEvent> get onServerEvent {
+    return _events
+        .where((event) => event is Map && ServerEvent.types.contains(event['event']))
+        .map((event) => ServerEvent.fromMap(event));
+  }
+
+  /// Service UUIDs of each of [addresses], null where none are known. The SDP queries run
+  /// concurrently; devices whose UUIDs are already known are answered from the cache unless
+  /// [refresh] is set. Devices that don't answer within [timeout] get their cached UUIDs.
+  /// Running discovery is cancelled, as it slows the queries down.
+  static Future<Map<String, List<String>?>> fetchUuids(List<String> addresses,
+      {bool refresh = false, Duration timeout = const Duration(seconds: 15)}) async {
+    final Map map = await _methodChannel.invokeMethod('fetchUuids', {
+      'addresses': addresses,
+      'refresh': refresh,
+      'timeout': timeout.inMilliseconds,
+    });
+    return map.map((key, value) => MapEntry(key as String, (value as List?)?.cast<String>()));
+  }
+
+  /// Aborts a connect to [address] that is still in progress, it then fails with `connect_cancelled`
+  static Future<dynamic> cancelConnect(String address) async {
+    return await _methodChannel.invokeMethod('cancelConnect', {'address': address});
+  }
+
+  /// Closes the connection to [address], or every connection when no address is given
+  static Future<dynamic> disconnect({String? address}) async {
+    return await _methodChannel.invokeMethod('disconnect', {if (address != null) 'address': address});
+  }
+
+  /// The [address] may be omitted while only one connection is open
+  static Future<Uint8List> read({String? address}) async {
+    return await _methodChannel.invokeMethod('read', {if (address != null) 'address': address});
+  }
+
+  /// Takes up to [maxBytes] of the data waiting in the receive buffer in one call, one entry
+  /// per frame on a framed connection, where at least one frame is returned.
+  /// The [address] may be omitted while only one connection is open
+  static Future<List<Uint8List>> readBuffered({int? maxBytes, String? address}) async {
+    final List list = await _methodChannel.invokeMethod('readBuffered', {
+      if (maxBytes != null) 'maxBytes': maxBytes,
+      if (address != null) 'address': address,
+    });
+    return list.cast<Uint8List>();
+  }
+
+  /// Receive buffers filling past their high water mark, draining back to the low one, or
+  /// overflowing with the 'fail' policy just before the connection is closed
+  static Stream<ReceiveBufferEvent> get onReceiveBufferEvent {
+    return _events
+        .where((event) => event is Map && ReceiveBufferEvent.types.contains(event['event']))
+        .map((event) => ReceiveBufferEvent.fromMap(event));
+  }
+
+  /// Queues [message] for sending and completes once it has been flushed to the socket.
+  /// Fails with `write_queue_full` when the connection's write queue has no room left.
+  ///
+  /// A [WritePriority.CONTROL] write is sent ahead of bulk writes waiting in the queue, and in
+  /// between the chunks of one that is being sent. By default messages under 4 KB are
+  /// control writes and larger ones bulk writes.
+  /// The [address] may be omitted while only one connection is open
+  static Future<dynamic> write(Uint8List message, {String? address, String? priority}) async {
+    return await _methodChannel.invokeMethod('write', {
+      'message': message,
+      if (address != null) 'address': address,
+      if (priority != null) 'priority': priority,
+    });
+  }
+
+  /// Sends [request] and completes with the first received frame [matcher] accepts as its
+  /// reply, the next frame received after the request was written by default. Several
+  /// transactions may be in flight at once; replies are matched oldest request first and are
+  /// not delivered to [onData] or [read].
+  /// Fails with `transact_timeout` when no reply arrives within [timeout].
+  /// On an unframed connection each received burst is taken as a whole, see [Framing].
+  static Future<Uint8List> transact(Uint8List request,
+      {ReplyMatcher? matcher, Duration timeout = const Duration(seconds: 5), String? address}) async {
+    return await _methodChannel.invokeMethod('transact', {
+      'request': request,
+      if (matcher != null) 'matcher': matcher.toMap(),
+      'timeout': timeout.inMilliseconds,
+      if (address != null) 'address': address,
+    });
+  }
+
+  /// Sends a large [payload] as raw bytes instead of through the method channel codec and
+  /// completes once all of it has been flushed to the socket. [onProgress] is called as the
+  /// payload is written out in chunks. The payload is always a [WritePriority.BULK] write, and
+  /// is copied once behind the transfer header.
+  /// The [address] may be omitted while only one connection is open
+  static Future<void> writeBulk(Uint8List payload, {String? address, void Function(int sent, int total)? onProgress}) async {
+    final int transferId = _bulkTransferId = (_bulkTransferId + 1) & 0x7fffffff;
+    final List<int> addressBytes = ascii.encode(address ?? '');
+    // The header and the payload go in one message, so a rejected message can't pair the
+    // next transfer's header with the wrong payload
+    final int headerLength = 6 + addressBytes.length;
+    final Uint8List message = Uint8List(headerLength + payload.lengthInBytes);
+    ByteData.view(message.buffer)
+      ..setUint8(0, 0x48)
+      ..setUint32(1, transferId)
+      ..setUint8(5, addressBytes.length);
+    message
+      ..setAll(6, addressBytes)
+      ..setAll(headerLength, payload);
+
+    StreamSubscription? progress;
+    if (onProgress != null) {
+      progress = _events
+          .where((event) => event is Map && event['event'] == 'bulkProgress' && event['transferId'] == transferId)
+          .listen((event) => onProgress(event['sent'], event['total']));
+    }
+
+    try {
+      _checkBulkReply(await _bulkChannel.send(message.buffer.asByteData()));
+    } finally {
+      await progress?.cancel();
+    }
+  }
+
+  static void _checkBulkReply(ByteData? reply) {
+    if (reply == null || reply.lengthInBytes == 0) {
+      throw PlatformException(code: 'write_error', message: 'no reply');
+    }
+    if (reply.getUint8(0) != 0) {
+      throw PlatformException(code: 'write_error', message: utf8.decode(reply.buffer.asUint8List(reply.offsetInBytes + 1, reply.lengthInBytes - 1)));
+    }
+  }
+
+  /// Number of writes waiting to be sent, as `{'depth': int, 'capacity': int}` plus the
+  /// depth of each lane as `'control'` and `'bulk'`
+  static Future<Map<String, int>> writeQueueDepth({String? address}) async {
+    final Map map = await _methodChannel.invokeMethod('getWriteQueueDepth', {if (address != null) 'address': address});
+    return map.cast<String, int>();
+  }
+
+  /// Paces everything sent on the connection to [bytesPerSecond], for peers whose receive
+  /// buffer overflows when written to at full speed. 0 removes the limit.
+  /// The [address] may be omitted while only one connection is open
+  static Future<void> setWriteRateLimit(int bytesPerSecond, {String? address}) async {
+    await _methodChannel.invokeMethod('setWriteRateLimit', {
+      'bytesPerSecond': bytesPerSecond,
+      if (address != null) 'address': address,
+    });
+  }
+
+  /// The traffic recently sent and received on the connection, oldest first.
+  /// The [address] may be omitted while only one connection is open
+  static Future<List<WireTraceRecord>> dumpTrace({String? address}) async {
+    final List list = await _methodChannel.invokeMethod('dumpTrace', {if (address != null) 'address': address});
+    return list.map((map) => WireTraceRecord.fromMap(map)).toList();
   }
 
-  static Future<dynamic> disconnect() async {
-    return await _methodChannel.invokeMethod('disconnect');
+  /// Logs the traffic of every connection natively as hex dumps, at most [linesPerSecond]
+  /// per connection
+  static Future<void> setWireLogging(bool enabled, {int linesPerSecond = 20}) async {
+    return await _methodChannel.invokeMethod('setWireLogging', {'enabled': enabled, 'linesPerSecond': linesPerSecond});
   }
 
-  static Future<Uint8List> read() async {
-    return await _methodChannel.invokeMethod('read');
+  /// I/O counters and latencies of the connection to [address], or of every open connection
+  /// by address when it is omitted
+  static Future<Map<String, ConnectionStats>> getStats({String? address}) async {
+    final Map map = await _methodChannel.invokeMethod('getStats', {if (address != null) 'address': address});
+    if (address != null) {
+      return {address: ConnectionStats.fromMap(map)};
+    }
+    return map.map((key, value) => MapEntry(key as String, ConnectionStats.fromMap(value)));
   }
 
-  static Future<dynamic> write(Uint8List message) async {
-    return await _methodChannel.invokeMethod('write', {'message': message});
+  /// Sends the stats of all open connections on [onStats] every [interval], [Duration.zero] stops it
+  static Future<void> setStatsInterval(Duration interval) async {
+    return await _methodChannel.invokeMethod('setStatsInterval', {'interval': interval.inMilliseconds});
+  }
+
+  /// Periodic stats by address, see [setStatsInterval]
+  static Stream<Map<String, ConnectionStats>> get onStats {
+    return _events
+        .where((event) => event is Map && event['event'] == 'stats')
+        .map((event) => (event['connections'] as Map)
+            .map((key, value) => MapEntry(key as String, ConnectionStats.fromMap(value))));
   }
 
   static Future<List<BluetoothDevice>> get getDeviceList async {
@@ -56,8 +384,66 @@ class FlutterBluetooth {
     return list.map((map) => BluetoothDevice.fromMap(map)).toList();
   }
 
+  /// Devices changed since [version], a version of 0 or one the native side no longer
+  /// knows returns the full list. Pass the returned [DeviceListDelta.version] next time.
+  static Future<DeviceListDelta> getDeviceListSince(int version) async {
+    final Map map = await _methodChannel.invokeMethod('getDeviceListSince', {'version': version});
+    return DeviceListDelta.fromMap(map);
+  }
+
   static Stream<int> get onBluetoothEvent {
-    return _eventChannel.receiveBroadcastStream().map((event) => event);
+    return _events.map(BluetoothEvent._legacyCode).where((code) => code != null).cast<int>();
+  }
+
+  /// Adapter, connection, bond and discovery changes, each carrying the device and its
+  /// previous and new state
+  static Stream<BluetoothEvent> get onEvent {
+    return _events
+        .where((event) => event is Map && BluetoothEvent.types.contains(event['event']))
+        .map((event) => BluetoothEvent.fromMap(event));
+  }
+
+  /// Devices added, changed or removed since the previous update, batched natively over
+  /// the interval set with [setDeviceUpdateInterval]
+  static Stream<DeviceListChange> get onDeviceListChanged {
+    return _events
+        .where((event) => event is Map && event['event'] == 'devices')
+        .map((event) => DeviceListChange.fromMap(event));
+  }
+
+  /// How long devices that are neither bonded nor connected stay in the persisted device
+  /// list after they were last seen. Defaults to 7 days.
+  static Future<void> setDeviceCacheTtl(Duration ttl) async {
+    return await _methodChannel.invokeMethod('setDeviceCacheTtl', {'ttl': ttl.inMilliseconds});
+  }
+
+  /// Forgets all known devices, including the persisted device list
+  static Future<void> clearDeviceCache() async {
+    return await _methodChannel.invokeMethod('clearDeviceCache');
+  }
+
+  /// Progress of native reconnects, see [ReconnectPolicy]
+  static Stream<ConnectionEvent> get onConnectionEvent {
+    return _events
+        .where((event) => event is Map && ConnectionEvent.types.contains(event['event']))
+        .map((event) => ConnectionEvent.fromMap(event));
+  }
+
+  /// How long device list changes are collected before [onDeviceListChanged] fires
+  static Future<void> setDeviceUpdateInterval(Duration interval) async {
+    return await _methodChannel.invokeMethod('setDeviceUpdateInterval', {'interval': interval.inMilliseconds});
+  }
+
+  /// Data received from the connected device, pushed as soon as it arrives.
+  /// While nothing listens, incoming data is buffered for [read] instead.
+  static Stream<Uint8List> get onData {
+    return _dataChannel.receiveBroadcastStream().map((data) => data as Uint8List);
+  }
+
+  /// Data received from the device at [address] only. Listen after [connect] has completed,
+  /// data of a connection with a listener here is not repeated on [onData].
+  static Stream<Uint8List> dataOf(String address) {
+    return EventChannel('flutter_bluetooth/data/$address').receiveBroadcastStream().map((data) => data as Uint8List);
   }
 }
 
@@ -68,7 +454,23 @@ class BluetoothDevice {
   final bool bonded;
   final bool connected;
 
-  BluetoothDevice(this.name, this.address, this.type, this.bonded, this.connected);
+  /// Signal strength in dBm when the device was last seen in a scan
+  final int? rssi;
+
+  /// When the device was last seen in a scan or connected
+  final DateTime? lastSeen;
+
+  /// Service UUID of the last successful connect
+  final String? service;
+
+  /// RFCOMM channel [service] was found on, reused to connect without an SDP query
+  final int? channel;
+
+  /// Service UUIDs of the last SDP query, see [FlutterBluetooth.fetchUuids]
+  final List<String>? uuids;
+
+  BluetoothDevice(this.name, this.address, this.type, this.bonded, this.connected,
+      {this.rssi, this.lastSeen, this.service, this.channel, this.uuids});
 
   factory BluetoothDevice.fromMap(Map map) {
     return BluetoothDevice(
@@ -77,6 +479,11 @@ class BluetoothDevice {
       map['type'],
       map['bonded'],
       map['connected'],
+      rssi: map['rssi'],
+      lastSeen: map['lastSeen'] != null ? DateTime.fromMillisecondsSinceEpoch(map['lastSeen']) : null,
+      service: map['service'],
+      channel: map['channel'],
+      uuids: (map['uuids'] as List?)?.cast<String>(),
     );
   }
 
@@ -89,6 +496,430 @@ class BluetoothDevice {
   int get hashCode => address.hashCode;
 }
 
+/// How the native side splits incoming data into frames
+class Framing {
+  final Map<String, dynamic> _arguments;
+
+  const Framing._(this._arguments);
+
+  /// Pass data on as it arrives
+  static const Framing raw = Framing._({'type': 'raw'});
+
+  /// Frames end with ETX (0x03), matching what [FlutterBluetooth.read] returns unframed
+  static const Framing etx = Framing._({'type': 'etx'});
+
+  /// Frames between [start] and [end]. When [escape] is set, the byte following it is
+  /// taken literally. Bytes outside a frame are dropped.
+  factory Framing.stxEtx({int start = 0x02, int end = 0x03, int? escape, bool includeControl = true, int? maxFrameLength}) {
+    return Framing._({
+      'type': 'stxEtx',
+      'start': start,
+      'end': end,
+      if (escape != null) 'escape': escape,
+      'includeControl': includeControl,
+      if (maxFrameLength != null) 'maxFrameLength': maxFrameLength,
+    });
+  }
+
+  /// Frames terminated by [delimiter], e.g. CR LF
+  factory Framing.delimiter(List<int> delimiter, {bool includeDelimiter = true, int? maxFrameLength}) {
+    return Framing._({
+      'type': 'delimiter',
+      'delimiter': Uint8List.fromList(delimiter),
+      'includeControl': includeDelimiter,
+      if (maxFrameLength != null) 'maxFrameLength': maxFrameLength,
+    });
+  }
+
+  /// Frames starting with a [lengthBytes] (1, 2 or 4) length field. The payload length is the
+  /// field value plus [lengthAdjustment].
+  factory Framing.lengthPrefixed({int lengthBytes = 2, bool bigEndian = true, int lengthAdjustment = 0, bool includeHeader = true, int? maxFrameLength}) {
+    return Framing._({
+      'type': 'lengthPrefixed',
+      'lengthBytes': lengthBytes,
+      'bigEndian': bigEndian,
+      'lengthAdjustment': lengthAdjustment,
+      'includeControl': includeHeader,
+      if (maxFrameLength != null) 'maxFrameLength': maxFrameLength,
+    });
+  }
+
+  Map<String, dynamic> toMap() => _arguments;
+}
+
+/// Tells the reply to a [FlutterBluetooth.transact] request apart from other received frames
+class ReplyMatcher {
+  final Map<String, dynamic> _arguments;
+
+  const ReplyMatcher._(this._arguments);
+
+  /// The next frame, whatever it is
+  static const ReplyMatcher any = ReplyMatcher._({'type': 'any'});
+
+  /// Frames holding [bytes] at [offset], e.g. `ReplyMatcher.prefix([0x06])` for ACK
+  factory ReplyMatcher.prefix(List<int> bytes, {int offset = 0}) {
+    return ReplyMatcher._({'type': 'prefix', 'bytes': Uint8List.fromList(bytes), 'offset': offset});
+  }
+
+  factory ReplyMatcher.equals(List<int> bytes) {
+    return ReplyMatcher._({'type': 'equals', 'bytes': Uint8List.fromList(bytes)});
+  }
+
+  /// Frames repeating [length] bytes of the request at [offset], such as a sequence number,
+  /// found at [replyOffset] in the reply (the same offset by default). Lets pipelined replies
+  /// come back out of order.
+  factory ReplyMatcher.echo({int offset = 0, int length = 1, int? replyOffset}) {
+    return ReplyMatcher._({'type': 'echo', 'offset': offset, 'length': length, if (replyOffset != null) 'replyOffset': replyOffset});
+  }
+
+  /// Frames any of [matchers] accepts, e.g. ACK or NAK
+  factory ReplyMatcher.anyOf(List<ReplyMatcher> matchers) {
+    return ReplyMatcher._({'type': 'anyOf', 'matchers': matchers.map((matcher) => matcher.toMap()).toList()});
+  }
+
+  Map<String, dynamic> toMap() => _arguments;
+}
+
+class ProtocolInfo {
+  final int version;
+
+  /// Methods the platform implements, others fail with a [MissingPluginException]
+  final List<String> methods;
+
+  ProtocolInfo(this.version, this.methods);
+
+  factory ProtocolInfo.fromMap(Map map) {
+    return ProtocolInfo(map['version'], (map['methods'] as List).cast<String>());
+  }
+
+  /// Whether the platform speaks this package's contract and implements [method]
+  bool supports(String method) => version == FlutterBluetooth.PROTOCOL_VERSION && methods.contains(method);
+}
+
+class DeviceListChange {
+  final List<BluetoothDevice> added;
+  final List<BluetoothDevice> changed;
+  final List<String> removed;
+
+  DeviceListChange(this.added, this.changed, this.removed);
+
+  factory DeviceListChange.fromMap(Map map) {
+    return DeviceListChange(
+      (map['added'] as List).map((device) => BluetoothDevice.fromMap(device)).toList(),
+      (map['changed'] as List).map((device) => BluetoothDevice.fromMap(device)).toList(),
+      (map['removed'] as List).cast<String>(),
+    );
+  }
+}
+
+class DeviceListDelta {
+  final int version;
+
+  /// When set, [devices] is the complete list and anything else should be dropped
+  final bool full;
+  final List<BluetoothDevice> devices;
+  final List<String> removed;
+
+  DeviceListDelta(this.version, this.full, this.devices, this.removed);
+
+  factory DeviceListDelta.fromMap(Map map) {
+    return DeviceListDelta(
+      map['version'],
+      map['full'],
+      (map['devices'] as List).map((device) => BluetoothDevice.fromMap(device)).toList(),
+      (map['removed'] as List).cast<String>(),
+    );
+  }
+}
+
+/// Scans for [window] out of every [interval] until [duration] is over, by default 12 out
+/// of 30 seconds for two minutes. A null [duration] runs until [FlutterBluetooth.stopScanSchedule].
+/// The schedule ends early once all [targets] addresses or [minDevices] devices were found.
+/// Each window runs a classic inquiry unless [classic] is false, and an LE scan when
+/// [leFilters] or [leScanMode] are given.
+class ScanSchedule {
+  final Duration window;
+  final Duration interval;
+  final Duration? duration;
+  final List<String>? targets;
+  final int? minDevices;
+  final bool classic;
+  final List<LeScanFilter>? leFilters;
+  final int? leScanMode;
+
+  const ScanSchedule({
+    this.window = const Duration(seconds: 12),
+    this.interval = const Duration(seconds: 30),
+    this.duration = const Duration(minutes: 2),
+    this.targets,
+    this.minDevices,
+    this.classic = true,
+    this.leFilters,
+    this.leScanMode,
+  });
+
+  Map<String, dynamic> toMap() {
+    return {
+      'window': window.inMilliseconds,
+      'interval': interval.inMilliseconds,
+      'duration': duration?.inMilliseconds ?? 0,
+      if (targets != null) 'targets': targets,
+      if (minDevices != null) 'minDevices': minDevices,
+      'classic': classic,
+      if (leFilters != null || leScanMode != null)
+        'leScan': {
+          if (leFilters != null) 'filters': leFilters!.map((filter) => filter.toMap()).toList(),
+          'scanMode': leScanMode ?? LeScanMode.LOW_POWER,
+        },
+    };
+  }
+}
+
+/// A schedule changing [state], or ending with [reason] after finding [found] devices
+class ScanScheduleEvent {
+  static const IDLE = 'idle';
+  static const SCANNING = 'scanning';
+  static const WAITING = 'waiting';
+  /// Scanning gave way to a connect or a bulk transfer
+  static const PAUSED = 'paused';
+
+  static const TARGETS_FOUND = 'targetsFound';
+  static const MIN_DEVICES = 'minDevices';
+  static const TIMEOUT = 'timeout';
+  static const STOPPED = 'stopped';
+
+  /// The new state, or [IDLE] when the schedule ended
+  final String state;
+  /// Why the schedule ended, null for state changes
+  final String? reason;
+  final int? found;
+
+  ScanScheduleEvent(this.state, this.reason, this.found);
+
+  factory ScanScheduleEvent.fromMap(Map map) {
+    if (map['event'] == 'scanFinished') {
+      return ScanScheduleEvent(IDLE, map['reason'], map['found']);
+    }
+    return ScanScheduleEvent(map['state'], null, null);
+  }
+}
+
+/// Matches advertisements on every field that is set
+class LeScanFilter {
+  final String? serviceUuid;
+  final String? address;
+  final String? name;
+  final int? manufacturerId;
+  final Uint8List? manufacturerData;
+  final Uint8List? manufacturerDataMask;
+
+  LeScanFilter({this.serviceUuid, this.address, this.name, this.manufacturerId, this.manufacturerData, this.manufacturerDataMask});
+
+  Map<String, dynamic> toMap() {
+    return {
+      if (serviceUuid != null) 'serviceUuid': serviceUuid,
+      if (address != null) 'address': address,
+      if (name != null) 'name': name,
+      if (manufacturerId != null) 'manufacturerId': manufacturerId,
+      if (manufacturerData != null) 'manufacturerData': manufacturerData,
+      if (manufacturerDataMask != null) 'manufacturerDataMask': manufacturerDataMask,
+    };
+  }
+}
+
+class LeScanMode {
+  static const OPPORTUNISTIC = -1;
+  static const LOW_POWER = 0;
+  static const BALANCED = 1;
+  static const LOW_LATENCY = 2;
+}
+
+/// Lane of a [FlutterBluetooth.write] in the connection's write queue
+class WritePriority {
+  static const CONTROL = 'control';
+  static const BULK = 'bulk';
+}
+
+/// Retries with exponential backoff, starting at [initialDelay] and doubling up to [maxDelay].
+/// A [maxAttempts] of 0 retries until [FlutterBluetooth.disconnect] is called.
+class ReconnectPolicy {
+  final Duration initialDelay;
+  final Duration maxDelay;
+  final int maxAttempts;
+
+  const ReconnectPolicy({this.initialDelay = const Duration(milliseconds: 500), this.maxDelay = const Duration(seconds: 30), this.maxAttempts = 0});
+
+  Map<String, dynamic> toMap() {
+    return {
+      'initialDelay': initialDelay.inMilliseconds,
+      'maxDelay': maxDelay.inMilliseconds,
+      'maxAttempts': maxAttempts,
+    };
+  }
+}
+
+class ServerEvent {
+  static const CLIENT_CONNECTED = 'clientConnected';
+  /// Sent when [FlutterBluetooth.listen]'s maxClients are connected or the device already is
+  static const CLIENT_REJECTED = 'clientRejected';
+  /// The server socket failed, e.g. because Bluetooth was turned off; listening has stopped
+  static const LISTEN_FAILED = 'listenFailed';
+  static const types = [CLIENT_CONNECTED, CLIENT_REJECTED, LISTEN_FAILED];
+
+  final String type;
+  final String? address;
+
+  ServerEvent(this.type, this.address);
+
+  factory ServerEvent.fromMap(Map map) {
+    return ServerEvent(map['event'], map['address']);
+  }
+}
+
+/// Bounded buffer of received data of a connection, 256 KB by default. When it is full
+/// [overflow] decides: [DROP_OLDEST] discards the oldest data, [BLOCK] stops reading so the
+/// peer is held back by flow control, and [FAIL] closes the connection.
+/// The water marks default to three and one quarter of the [capacity].
+class ReceiveBuffer {
+  static const BLOCK = 'block';
+  static const DROP_OLDEST = 'dropOldest';
+  static const FAIL = 'fail';
+
+  final int? capacity;
+  final String overflow;
+  final int? highWater;
+  final int? lowWater;
+
+  const ReceiveBuffer({this.capacity, this.overflow = DROP_OLDEST, this.highWater, this.lowWater});
+
+  Map<String, dynamic> toMap() {
+    return {
+      if (capacity != null) 'capacity': capacity,
+      'overflow': overflow,
+      if (highWater != null) 'highWater': highWater,
+      if (lowWater != null) 'lowWater': lowWater,
+    };
+  }
+}
+
+class ReceiveBufferEvent {
+  static const HIGH_WATER = 'receiveHighWater';
+  static const LOW_WATER = 'receiveLowWater';
+  static const OVERFLOW = 'receiveOverflow';
+  static const types = [HIGH_WATER, LOW_WATER, OVERFLOW];
+
+  final String type;
+  final String address;
+  /// Bytes buffered, including 4 bytes per frame on framed connections
+  final int size;
+  final int capacity;
+  /// Bytes discarded by the [ReceiveBuffer.DROP_OLDEST] policy so far
+  final int dropped;
+
+  ReceiveBufferEvent(this.type, this.address, this.size, this.capacity, this.dropped);
+
+  factory ReceiveBufferEvent.fromMap(Map map) {
+    return ReceiveBufferEvent(map['event'], map['address'], map['size'], map['capacity'], map['dropped']);
+  }
+}
+
+class ConnectionEvent {
+  static const RECONNECTING = 'reconnecting';
+  static const RECONNECTED = 'reconnected';
+  static const RECONNECT_FAILED = 'reconnectFailed';
+  static const types = [RECONNECTING, RECONNECTED, RECONNECT_FAILED];
+
+  final String type;
+  final String address;
+  final int attempt;
+
+  ConnectionEvent(this.type, this.address, this.attempt);
+
+  factory ConnectionEvent.fromMap(Map map) {
+    return ConnectionEvent(map['event'], map['address'], map['attempt']);
+  }
+}
+
+class WireTraceRecord {
+  /// True for data sent, false for data received
+  final bool outgoing;
+  final DateTime time;
+  final Uint8List data;
+  /// [data] with control characters by name and non-text bytes in hex
+  final String text;
+
+  WireTraceRecord(this.outgoing, this.time, this.data, this.text);
+
+  factory WireTraceRecord.fromMap(Map map) {
+    return WireTraceRecord(map['direction'] == 'out', DateTime.fromMillisecondsSinceEpoch(map['time']), map['data'], map['text']);
+  }
+}
+
+/// Latencies in microseconds, percentiles are accurate to within a factor of two
+class LatencyStats {
+  final int count;
+  final int mean;
+  final int p50;
+  final int p90;
+  final int p99;
+  final int max;
+
+  LatencyStats(this.count, this.mean, this.p50, this.p90, this.p99, this.max);
+
+  factory LatencyStats.fromMap(Map map) {
+    return LatencyStats(map['count'], map['mean'], map['p50'], map['p90'], map['p99'], map['max']);
+  }
+}
+
+class ConnectionStats {
+  /// When the connection was opened, counters start from there
+  final DateTime since;
+  final int bytesIn;
+  final int bytesOut;
+  /// Frames received, or bursts of data on an unframed connection
+  final int framesIn;
+  /// Completed writes
+  final int framesOut;
+  final int reconnects;
+  final int queueDepth;
+  final int queueCapacity;
+  final int maxQueueDepth;
+  /// Bytes waiting in the receive buffer, see [ReceiveBuffer]
+  final int receiveBuffered;
+  final int receiveCapacity;
+  final int receiveDropped;
+  /// Time spent writing each batch to the socket
+  final LatencyStats writeLatency;
+  /// From the socket read returning to the data being handed to Dart
+  final LatencyStats deliveryLatency;
+  /// From the connect call, or a reconnect attempt, to the link being up
+  final LatencyStats connectLatency;
+
+  ConnectionStats(this.since, this.bytesIn, this.bytesOut, this.framesIn, this.framesOut, this.reconnects,
+      this.queueDepth, this.queueCapacity, this.maxQueueDepth, this.receiveBuffered, this.receiveCapacity,
+      this.receiveDropped, this.writeLatency, this.deliveryLatency, this.connectLatency);
+
+  factory ConnectionStats.fromMap(Map map) {
+    return ConnectionStats(
+      DateTime.fromMillisecondsSinceEpoch(map['since']),
+      map['bytesIn'],
+      map['bytesOut'],
+      map['framesIn'],
+      map['framesOut'],
+      map['reconnects'],
+      map['queueDepth'],
+      map['queueCapacity'],
+      map['maxQueueDepth'],
+      map['receiveBuffered'],
+      map['receiveCapacity'],
+      map['receiveDropped'],
+      LatencyStats.fromMap(map['writeLatency']),
+      LatencyStats.fromMap(map['deliveryLatency']),
+      LatencyStats.fromMap(map['connectLatency']),
+    );
+  }
+}
+
 class DeviceType {
   static const UNKNOWN = 0;
   static const CLASSIC = 1;
@@ -96,6 +927,89 @@ class DeviceType {
   static const DUAL = 3;
 }
 
+class BluetoothEvent {
+  /// [previous] and [state] are BTEvent.STATE_* values
+  static const ADAPTER_STATE = 'adapterState';
+  static const ACL_CONNECTED = 'aclConnected';
+  static const ACL_DISCONNECTED = 'aclDisconnected';
+  /// [previous] and [state] are [CONNECTION_STATE_DISCONNECTED] to [CONNECTION_STATE_DISCONNECTING]
+  static const CONNECTION_STATE = 'connectionState';
+  /// [previous] and [state] are [BOND_NONE], [BOND_BONDING] or [BOND_BONDED]
+  static const BOND_STATE = 'bondState';
+  static const DISCOVERY_STARTED = 'discoveryStarted';
+  static const DISCOVERY_FINISHED = 'discoveryFinished';
+  /// An SDP query answered, [device] carries the service UUIDs found
+  static const UUIDS = 'uuids';
+  static const types = [
+    ADAPTER_STATE,
+    ACL_CONNECTED,
+    ACL_DISCONNECTED,
+    CONNECTION_STATE,
+    BOND_STATE,
+    DISCOVERY_STARTED,
+    DISCOVERY_FINISHED,
+    UUIDS,
+  ];
+
+  static const CONNECTION_STATE_DISCONNECTED = 0;
+  static const CONNECTION_STATE_CONNECTING = 1;
+  static const CONNECTION_STATE_CONNECTED = 2;
+  static const CONNECTION_STATE_DISCONNECTING = 3;
+
+  static const BOND_NONE = 10;
+  static const BOND_BONDING = 11;
+  static const BOND_BONDED = 12;
+
+  final String type;
+  final String? address;
+  final int? previous;
+  final int? state;
+  /// Whether the plugin holds an open connection to [address]
+  final bool? connected;
+  /// The stored device as it is after the change
+  final BluetoothDevice? device;
+
+  BluetoothEvent(this.type, this.address, this.previous, this.state, this.connected, this.device);
+
+  factory BluetoothEvent.fromMap(Map map) {
+    return BluetoothEvent(map['event'], map['address'], map['previous'], map['state'], map['connected'],
+        map['device'] == null ? null : BluetoothDevice.fromMap(map['device']));
+  }
+
+  /// The BTEvent code the event was sent as before events carried their details
+  static int? _legacyCode(dynamic event) {
+    if (event is int) {
+      return event;
+    }
+    if (event is! Map) {
+      return null;
+    }
+    switch (event['event']) {
+      case ADAPTER_STATE:
+        return event['state'];
+      case ACL_CONNECTED:
+        return BTEvent.CONNECTED;
+      case ACL_DISCONNECTED:
+        return BTEvent.DISCONNECTED;
+      case CONNECTION_STATE:
+        switch (event['state']) {
+          case CONNECTION_STATE_CONNECTED:
+            return BTEvent.CONNECTED;
+          case CONNECTION_STATE_DISCONNECTED:
+            return BTEvent.DISCONNECTED;
+        }
+        return null;
+      case DISCOVERY_STARTED:
+        return BTEvent.DISCOVERY_STARTED;
+      case DISCOVERY_FINISHED:
+        return BTEvent.DISCOVERY_FINISHED;
+      case 'devices':
+        return BTEvent.DEVICE_LIST_UPDATED;
+    }
+    return null;
+  }
+}
+
 class BTEvent {
   static const int STATE_OFF = 10;
   static const int STATE_TURNING_ON = 11;
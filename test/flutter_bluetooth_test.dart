@@ -3,13 +3,21 @@ import 'package:flutter_test/flutter_test.dart';
 import 'package:flutter_bluetooth/flutter_bluetooth.dart';
 
 void main() {
-  const MethodChannel channel = MethodChannel('flutter_bluetooth');
+  const MethodChannel channel = MethodChannel('flutter_bluetooth/method');
 
   TestWidgetsFlutterBinding.ensureInitialized();
 
   setUp(() {
     channel.setMockMethodCallHandler((MethodCall methodCall) async {
-      return '42';
+      switch (methodCall.method) {
+        case 'getProtocolVersion':
+          return {
+            'version': 1,
+            'methods': ['getPlatformVersion', 'getProtocolVersion', 'connect'],
+          };
+        default:
+          return '42';
+      }
     });
   });
 
@@ -20,4 +28,24 @@ void main() {
   test('getPlatformVersion', () async {
     expect(await FlutterBluetooth.platformVersion, '42');
   });
+
+  test('getProtocolVersion', () async {
+    final ProtocolInfo protocol = await FlutterBluetooth.protocol;
+    expect(protocol.version, FlutterBluetooth.PROTOCOL_VERSION);
+    expect(protocol.supports('connect'), true);
+    expect(protocol.supports('transact'), false);
+  });
+
+  test('getProtocolVersion on a platform from before the contract', () async {
+    channel.setMockMethodCallHandler((MethodCall methodCall) async {
+      if (methodCall.method == 'getProtocolVersion') {
+        throw MissingPluginException();
+      }
+      return '42';
+    });
+
+    final ProtocolInfo protocol = await FlutterBluetooth.protocol;
+    expect(protocol.version, 0);
+    expect(protocol.supports('getPlatformVersion'), false);
+  });
 }
@@ -1,4 +1,5 @@
 #include "include/flutter_bluetooth/flutter_bluetooth_plugin.h"
+#include "protocol.h"
 
 // This must be included before many other Windows headers.
 #include <windows.h>
@@ -8,6 +9,7 @@
 
 #include <flutter/method_channel.h>
 #include <flutter/plugin_registrar_windows.h>
+#include <flutter/encodable_value.h>
 #include <flutter/standard_method_codec.h>
 
 #include <map>
@@ -36,7 +38,7 @@ void FlutterBluetoothPlugin::RegisterWithRegistrar(
     flutter::PluginRegistrarWindows *registrar) {
   auto channel =
       std::make_unique<flutter::MethodChannel<flutter::EncodableValue>>(
-          registrar->messenger(), "flutter_bluetooth",
+          registrar->messenger(), flutter_bluetooth::kMethodChannel,
           &flutter::StandardMethodCodec::GetInstance());
 
   auto plugin = std::make_unique<FlutterBluetoothPlugin>();
@@ -67,6 +69,16 @@ void FlutterBluetoothPlugin::HandleMethodCall(
       version_stream << "7";
     }
     result->Success(flutter::EncodableValue(version_stream.str()));
+  } else if (method_call.method_name().compare("getProtocolVersion") == 0) {
+    flutter::EncodableList methods;
+    for (const char *method : flutter_bluetooth::kMethods) {
+      methods.push_back(flutter::EncodableValue(method));
+    }
+    result->Success(flutter::EncodableValue(flutter::EncodableMap{
+        {flutter::EncodableValue("version"),
+         flutter::EncodableValue(flutter_bluetooth::kProtocolVersion)},
+        {flutter::EncodableValue("methods"), flutter::EncodableValue(methods)},
+    }));
   } else {
     result->NotImplemented();
   }
@@ -0,0 +1,24 @@
+#ifndef FLUTTER_PLUGIN_FLUTTER_BLUETOOTH_PROTOCOL_H_
+#define FLUTTER_PLUGIN_FLUTTER_BLUETOOTH_PROTOCOL_H_
+
+// Version and names of the wire contract in protocol/PROTOCOL.md, the same as
+// android/core/src/main/java/jp/charm/flutter_bluetooth/Protocol.java. The core's
+// conformance tests check that both agree.
+namespace flutter_bluetooth {
+
+constexpr int kProtocolVersion = 1;
+
+constexpr char kMethodChannel[] = "flutter_bluetooth/method";
+constexpr char kEventChannel[] = "flutter_bluetooth/event";
+constexpr char kDataChannel[] = "flutter_bluetooth/data";
+constexpr char kBulkChannel[] = "flutter_bluetooth/bulk";
+
+// Methods this plugin implements so far, reported by getProtocolVersion
+constexpr const char *kMethods[] = {
+    "getPlatformVersion",
+    "getProtocolVersion",
+};
+
+}  // namespace flutter_bluetooth
+
+#endif  // FLUTTER_PLUGIN_FLUTTER_BLUETOOTH_PROTOCOL_H_